@@ -0,0 +1,23 @@
+package org.csea.job.benchmark;
+
+import org.csea.job.Job;
+
+import java.util.UUID;
+
+/**
+ * A minimal <code>Job</code> for benchmarks.  Generating a random id is slow next to submitting a job, so benchmarks
+ * take theirs from {@link BenchmarkJobs} rather than creating them as they go.
+ */
+public class BenchmarkJob implements Job {
+
+    private final UUID id;
+
+    public BenchmarkJob(UUID id) {
+        this.id = id;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+}
@@ -0,0 +1,39 @@
+package org.csea.job.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+
+/**
+ * A supply of <code>BenchmarkJob</code>s for each benchmark thread, created before measuring starts so that
+ * generating their ids is not part of the measured operation.  The jobs are handed out in turn and reused once the
+ * supply runs out, which is safe as the benchmarked services do not deduplicate.
+ */
+@State(Scope.Thread)
+public class BenchmarkJobs {
+
+    private static final int SIZE = 4096;
+
+    private final BenchmarkJob[] jobs = new BenchmarkJob[SIZE];
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < SIZE; i++) {
+            jobs[i] = new BenchmarkJob(UUID.randomUUID());
+        }
+    }
+
+    /**
+     * @return the next job
+     */
+    public BenchmarkJob next() {
+        BenchmarkJob job = jobs[next];
+        next = (next + 1) & (SIZE - 1);
+        return job;
+    }
+}
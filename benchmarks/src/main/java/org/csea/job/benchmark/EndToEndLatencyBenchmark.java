@@ -0,0 +1,63 @@
+package org.csea.job.benchmark;
+
+import org.csea.job.JobExecutionService;
+import org.csea.job.JobResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from submitting a job until its <code>JobResult</code> completes, as a latency distribution.
+ * Each benchmark thread submits a job and waits for it, so the number of threads is the number of jobs in flight:
+ * with fewer threads than the batch size, every job waits out the maximum delay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class EndToEndLatencyBenchmark {
+
+    @Param({"1", "8", "16"})
+    public int batchSize;
+
+    @Param({"1", "5"})
+    public long maxDelayInMillis;
+
+    @Param({"0", "200"})
+    public long processorLatencyInMicros;
+
+    private JobExecutionService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = JobExecutionService.builder(batchSize, new StubBatchProcessor(processorLatencyInMicros))
+                .maxDelayInMillis(maxDelayInMillis)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public JobResult submitAndComplete(BenchmarkJobs jobs) {
+        return service.submit(jobs.next()).toCompletableFuture().join();
+    }
+}
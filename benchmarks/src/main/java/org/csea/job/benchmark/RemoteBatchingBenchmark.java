@@ -0,0 +1,95 @@
+package org.csea.job.benchmark;
+
+import org.csea.job.Job;
+import org.csea.job.JobExecutionService;
+import org.csea.job.JobResult;
+import org.csea.job.JobSerializer;
+import org.csea.job.remote.LoopbackBatchServer;
+import org.csea.job.remote.SocketBatchProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from submitting a job until its <code>JobResult</code> completes when batches go over a socket
+ * to a <code>LoopbackBatchServer</code>, so the cost of framing and the round trip shows up alongside the batching
+ * delay.  With more than one batch in flight the batches are pipelined on the one connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class RemoteBatchingBenchmark {
+
+    private static final JobSerializer SERIALIZER = new JobSerializer() {
+        @Override
+        public byte[] serialize(Job job) {
+            return ByteBuffer.allocate(16)
+                    .putLong(job.getId().getMostSignificantBits())
+                    .putLong(job.getId().getLeastSignificantBits())
+                    .array();
+        }
+
+        @Override
+        public Job deserialize(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new BenchmarkJob(new UUID(buffer.getLong(), buffer.getLong()));
+        }
+    };
+
+    @Param({"1", "8", "16"})
+    public int batchSize;
+
+    @Param({"1", "4"})
+    public int maxInFlightBatches;
+
+    @Param({"0", "200"})
+    public long processorLatencyInMicros;
+
+    private LoopbackBatchServer server;
+
+    private SocketBatchProcessor processor;
+
+    private JobExecutionService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new LoopbackBatchServer(new StubBatchProcessor(processorLatencyInMicros), SERIALIZER,
+                maxInFlightBatches);
+        processor = new SocketBatchProcessor(server.getAddress(), SERIALIZER);
+        service = JobExecutionService.asyncBuilder(batchSize, processor)
+                .maxDelayInMillis(1)
+                .maxInFlightBatches(maxInFlightBatches)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.shutdown();
+        processor.close();
+        server.close();
+    }
+
+    @Benchmark
+    public JobResult submitAndComplete(BenchmarkJobs jobs) {
+        return service.submit(jobs.next()).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,41 @@
+package org.csea.job.benchmark;
+
+import org.csea.job.BatchProcessor;
+import org.csea.job.Job;
+import org.csea.job.JobExecutionStatus;
+import org.csea.job.JobResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A <code>BatchProcessor</code> that succeeds every job after a fixed latency per batch
+ */
+public class StubBatchProcessor implements BatchProcessor {
+
+    private final long latencyInNanos;
+
+    /**
+     * @param latencyInMicros how long each call to process takes.  0 returns straight away
+     */
+    public StubBatchProcessor(long latencyInMicros) {
+        this.latencyInNanos = latencyInMicros * 1000;
+    }
+
+    @Override
+    public List<JobResult> process(List<Job> jobs) {
+        if (latencyInNanos > 0) {
+            long deadline = System.nanoTime() + latencyInNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+        List<JobResult> results = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            results.add(new JobResult(job.getId(), JobExecutionStatus.SUCCESS));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,86 @@
+package org.csea.job.benchmark;
+
+import org.csea.job.JobExecutionService;
+import org.csea.job.JobResult;
+import org.csea.job.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many jobs per second producers can submit.  The service has a bounded capacity with the BLOCK
+ * policy, so the figure is the sustained rate the whole pipeline can absorb rather than how fast an unbounded queue
+ * can grow.  There is a benchmark for each number of producer threads, 1, 2, 4 and 8, to see how it scales with
+ * contention.  Run with <code>-prof gc</code> to see the bytes allocated per job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitThroughputBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int batchSize;
+
+    @Param({"0", "100"})
+    public long processorLatencyInMicros;
+
+    @Param({"1", "4"})
+    public int maxInFlightBatches;
+
+    private JobExecutionService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = JobExecutionService.builder(batchSize, new StubBatchProcessor(processorLatencyInMicros))
+                .maxDelayInMillis(1)
+                .maxInFlightBatches(maxInFlightBatches)
+                .capacity(batchSize * 16)
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public JobResult submit1Producer(BenchmarkJobs jobs) {
+        return service.submit(jobs.next());
+    }
+
+    @Benchmark
+    @Threads(2)
+    public JobResult submit2Producers(BenchmarkJobs jobs) {
+        return service.submit(jobs.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public JobResult submit4Producers(BenchmarkJobs jobs) {
+        return service.submit(jobs.next());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public JobResult submit8Producers(BenchmarkJobs jobs) {
+        return service.submit(jobs.next());
+    }
+}
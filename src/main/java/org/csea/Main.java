@@ -1,7 +1,204 @@
 package org.csea;
 
+import org.csea.job.JobExecutionService;
+import org.csea.job.OverflowPolicy;
+import org.csea.job.metrics.LatencyHistogram;
+import org.csea.job.metrics.MetricsSnapshot;
+import org.csea.load.LatencyDistribution;
+import org.csea.load.LoadGenerator;
+import org.csea.load.SyntheticBatchProcessor;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load-testing tool for sizing a <code>JobExecutionService</code>.  It submits Jobs at a fixed rate, open loop,
+ * to a service backed by a {@link SyntheticBatchProcessor}, and prints the throughput, latency, batch fill ratio and
+ * queue depth every interval, followed by a summary of the whole run.  Run with <code>--help</code> for the options.
+ */
 public class Main {
-    public static void main(String[] args) {
-        System.out.println("Hello world!");
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java org.csea.Main [--option=value ...]",
+            "  --rate=1000                 jobs per second to submit",
+            "  --duration=10               seconds to submit jobs for",
+            "  --batch-size=100            jobs per batch",
+            "  --max-delay=10              milliseconds a partial batch may wait",
+            "  --in-flight=1               batches the processor may have at once",
+            "  --capacity=0                pending jobs before the service pushes back, 0 for no limit",
+            "  --overflow=BLOCK            what a full service does with a new job, one of",
+            "                              " + Arrays.toString(OverflowPolicy.values()),
+            "  --latency=lognormal:2:20    processor latency per batch, in milliseconds: fixed:ms, uniform:min:max,",
+            "                              exponential:mean or lognormal:median:p99",
+            "  --per-job-latency=0         microseconds each job adds to its batch's latency",
+            "  --failure-rate=0            chance of each job failing, between 0 and 1",
+            "  --report-interval=1000      milliseconds between reports");
+
+    private static final Set<String> OPTIONS = Set.of("help", "rate", "duration", "batch-size", "max-delay",
+            "in-flight", "capacity", "overflow", "latency", "per-job-latency", "failure-rate", "report-interval");
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.containsKey("help")) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        double rate;
+        long durationInMillis;
+        int batchSize;
+        JobExecutionService service;
+        long reportIntervalInMillis;
+        try {
+            rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+            durationInMillis = (long) (Double.parseDouble(options.getOrDefault("duration", "10")) * 1000);
+            batchSize = Integer.parseInt(options.getOrDefault("batch-size", "100"));
+            reportIntervalInMillis = Long.parseLong(options.getOrDefault("report-interval", "1000"));
+            SyntheticBatchProcessor processor = new SyntheticBatchProcessor(
+                    LatencyDistribution.parse(options.getOrDefault("latency", "lognormal:2:20")),
+                    Long.parseLong(options.getOrDefault("per-job-latency", "0")),
+                    Double.parseDouble(options.getOrDefault("failure-rate", "0")));
+            JobExecutionService.Builder builder = JobExecutionService.builder(batchSize, processor)
+                    .maxDelayInMillis(Long.parseLong(options.getOrDefault("max-delay", "10")))
+                    .maxInFlightBatches(Integer.parseInt(options.getOrDefault("in-flight", "1")));
+            int capacity = Integer.parseInt(options.getOrDefault("capacity", "0"));
+            if (capacity > 0) {
+                builder.capacity(capacity)
+                        .overflowPolicy(OverflowPolicy.valueOf(options.getOrDefault("overflow", "BLOCK")));
+            }
+            service = builder.build();
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        PrintStream out = System.out;
+        out.printf(Locale.ROOT, "%,.0f jobs/s for %.1f s, batch size %d%n", rate, durationInMillis / 1000.0,
+                batchSize);
+        out.printf(Locale.ROOT, "%8s %10s %10s %8s %9s %9s %9s %9s %8s %8s %6s%n", "time(s)", "submit/s",
+                "done/s", "failed", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "queue", "inflight", "fill");
+
+        LoadGenerator generator = new LoadGenerator(service, rate);
+        Reporter reporter = new Reporter(out, generator, service);
+        ScheduledExecutorService reporting = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporting.scheduleAtFixedRate(reporter::report, reportIntervalInMillis, reportIntervalInMillis,
+                TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        generator.run(durationInMillis);
+        boolean drained = generator.awaitCompletion(Math.max(10_000, durationInMillis));
+        long elapsed = System.nanoTime() - start;
+        reporting.shutdown();
+        reporting.awaitTermination(1, TimeUnit.SECONDS);
+        service.shutdown();
+
+        MetricsSnapshot metrics = service.getMetrics();
+        out.println();
+        out.printf(Locale.ROOT, "submitted %,d, completed %,d, failed %,d, rejected %,d%s%n", generator.getSubmitted(),
+                generator.getCompleted(), generator.getFailed(), generator.getRejected(),
+                drained ? "" : " (gave up waiting for the rest)");
+        out.printf(Locale.ROOT, "throughput %,.0f jobs/s over %.1f s%n",
+                generator.getCompleted() * 1e9 / elapsed, elapsed / 1e9);
+        out.printf(Locale.ROOT, "batches %,d, fill ratio %.2f, most behind schedule %.1f ms%n", metrics.getBatches(),
+                metrics.getBatchFillRatio(), generator.getMaxLagInNanos() / NANOS_PER_MILLI);
+        printLatency(out, "submit to complete, from when due", generator.getLatency());
+        printLatency(out, "submit to complete, from submit  ", generator.getServiceLatency());
+        printLatency(out, "pending                          ", metrics.getPendingTime());
+        printLatency(out, "processor call                   ", metrics.getProcessLatency());
+    }
+
+    /**
+     * Reads <code>--name=value</code> options, and <code>--name</code> alone as a flag
+     */
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.length() == 2) {
+                throw new IllegalArgumentException("Unexpected argument " + arg);
+            }
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+            if (!OPTIONS.contains(name)) {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            options.put(name, equals < 0 ? "" : arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static void printLatency(PrintStream out, String label, LatencyHistogram histogram) {
+        out.printf(Locale.ROOT, "%s  p50 %8.2f  p90 %8.2f  p99 %8.2f  p99.9 %8.2f  max %8.2f ms%n", label,
+                histogram.getPercentile(50) / NANOS_PER_MILLI, histogram.getPercentile(90) / NANOS_PER_MILLI,
+                histogram.getPercentile(99) / NANOS_PER_MILLI, histogram.getPercentile(99.9) / NANOS_PER_MILLI,
+                histogram.getMax() / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Prints one line per interval, from the change in the counts since the previous one
+     */
+    private static final class Reporter {
+
+        private final PrintStream out;
+        private final LoadGenerator generator;
+        private final JobExecutionService service;
+        private final long start = System.nanoTime();
+        private long lastTime = start;
+        private long lastSubmitted;
+        private long lastCompleted;
+        private long lastFailed;
+        private long lastBatchedJobs;
+        private long lastBatchSlots;
+
+        private Reporter(PrintStream out, LoadGenerator generator, JobExecutionService service) {
+            this.out = out;
+            this.generator = generator;
+            this.service = service;
+        }
+
+        private void report() {
+            long now = System.nanoTime();
+            double seconds = (now - lastTime) / 1e9;
+            long submitted = generator.getSubmitted();
+            long completed = generator.getCompleted();
+            long failed = generator.getFailed();
+            MetricsSnapshot metrics = service.getMetrics();
+            LatencyHistogram latency = generator.takeIntervalLatency();
+            long slots = metrics.getBatchSlots() - lastBatchSlots;
+            double fill = slots == 0 ? 0 : (double) (metrics.getBatchedJobs() - lastBatchedJobs) / slots;
+            out.printf(Locale.ROOT, "%8.1f %10.0f %10.0f %8d %9.2f %9.2f %9.2f %9.2f %8d %8d %6.2f%n",
+                    (now - start) / 1e9, (submitted - lastSubmitted) / seconds, (completed - lastCompleted) / seconds,
+                    failed - lastFailed, latency.getPercentile(50) / NANOS_PER_MILLI,
+                    latency.getPercentile(99) / NANOS_PER_MILLI, latency.getPercentile(99.9) / NANOS_PER_MILLI,
+                    latency.getMax() / NANOS_PER_MILLI, metrics.getQueueDepth(), metrics.getInFlightBatches(), fill);
+            lastTime = now;
+            lastSubmitted = submitted;
+            lastCompleted = completed;
+            lastFailed = failed;
+            lastBatchedJobs = metrics.getBatchedJobs();
+            lastBatchSlots = metrics.getBatchSlots();
+        }
     }
-}
\ No newline at end of file
+}
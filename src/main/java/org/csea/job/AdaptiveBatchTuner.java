@@ -0,0 +1,112 @@
+package org.csea.job;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the current batch size and maximum delay of a <code>JobExecutionService</code> using
+ * <code>AdaptiveBatching</code>, and adjusts them as batches complete.  The values are read without locking on
+ * the submit path; updates happen once per batch.
+ */
+final class AdaptiveBatchTuner {
+
+    /** Weight given to the newest latency sample in the smoothed latency */
+    private static final double SMOOTHING = 0.3;
+
+    /** Number of batches throughput is measured over before the batch size is moved when tuning for throughput */
+    private static final int THROUGHPUT_WINDOW = 8;
+
+    private final AdaptiveBatching settings;
+
+    private final int step;
+
+    private volatile int batchSize;
+
+    private volatile long maxDelayInMillis;
+
+    private double smoothedLatencyInNanos = -1;
+
+    private int direction = 1;
+    private int windowBatches;
+    private int windowFullBatches;
+    private long windowJobs;
+    private long windowNanos;
+    private double lastThroughput = -1;
+
+    AdaptiveBatchTuner(AdaptiveBatching settings, int initialBatchSize, long initialDelayInMillis) {
+        this.settings = settings;
+        this.step = Math.max(1, (settings.getMaxBatchSize() - settings.getMinBatchSize()) / 32);
+        this.batchSize = clamp(initialBatchSize, settings.getMinBatchSize(), settings.getMaxBatchSize());
+        this.maxDelayInMillis = settings.getTargetLatencyInMillis() > 0
+                ? clamp(initialDelayInMillis, settings.getMinDelayInMillis(), settings.getMaxDelayInMillis())
+                : settings.getMaxDelayInMillis();
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    long getMaxDelayInMillis() {
+        return maxDelayInMillis;
+    }
+
+    /**
+     * Records a completed batch and adjusts the batch size and delay
+     *
+     * @param jobCount the number of jobs in the batch
+     * @param full whether the batch was sent because it reached the batch size, rather than on the delay
+     * @param latencyInNanos how long the processor took with the batch
+     */
+    synchronized void onBatchProcessed(int jobCount, boolean full, long latencyInNanos) {
+        smoothedLatencyInNanos = smoothedLatencyInNanos < 0
+                ? latencyInNanos
+                : smoothedLatencyInNanos + SMOOTHING * (latencyInNanos - smoothedLatencyInNanos);
+        if (settings.getTargetLatencyInMillis() > 0) {
+            tuneForLatency(full, latencyInNanos);
+        } else {
+            tuneForThroughput(jobCount, full, latencyInNanos);
+        }
+    }
+
+    private void tuneForLatency(boolean full, long latencyInNanos) {
+        long targetInNanos = TimeUnit.MILLISECONDS.toNanos(settings.getTargetLatencyInMillis());
+        if (latencyInNanos > targetInNanos) {
+            batchSize = Math.max(settings.getMinBatchSize(), batchSize / 2);
+        } else if (full) {
+            // only grow when there is the demand to fill a bigger batch
+            batchSize = Math.min(settings.getMaxBatchSize(), batchSize + step);
+        }
+        long remainingInMillis = TimeUnit.NANOSECONDS.toMillis(targetInNanos - (long) smoothedLatencyInNanos);
+        maxDelayInMillis = clamp(remainingInMillis, settings.getMinDelayInMillis(), settings.getMaxDelayInMillis());
+    }
+
+    private void tuneForThroughput(int jobCount, boolean full, long latencyInNanos) {
+        windowBatches++;
+        windowFullBatches += full ? 1 : 0;
+        windowJobs += jobCount;
+        windowNanos += Math.max(1, latencyInNanos);
+        if (windowBatches < THROUGHPUT_WINDOW) {
+            return;
+        }
+        double throughput = (double) windowJobs / windowNanos;
+        // batch size only matters while batches are filling, otherwise hold and keep measuring
+        if (windowFullBatches * 2 >= windowBatches) {
+            if (lastThroughput >= 0 && throughput < lastThroughput) {
+                direction = -direction;
+            }
+            lastThroughput = throughput;
+            batchSize = clamp(batchSize + direction * step, settings.getMinBatchSize(), settings.getMaxBatchSize());
+        }
+        windowBatches = 0;
+        windowFullBatches = 0;
+        windowJobs = 0;
+        windowNanos = 0;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
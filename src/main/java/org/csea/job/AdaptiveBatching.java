@@ -0,0 +1,92 @@
+package org.csea.job;
+
+/**
+ * Settings that let a <code>JobExecutionService</code> tune its batch size and maximum delay at runtime from the
+ * latency it observes in <code>BatchProcessor.process</code>, staying within the given bounds.
+ *
+ * With a target latency, the batch size is adjusted additive-increase / multiplicative-decrease: it grows by a
+ * small step after each full batch that was processed within the target and halves after any batch that was not.
+ * The delay is set to whatever is left of the target once the processing latency is taken out, so a job's time
+ * spent pending plus processing stays close to the target.
+ *
+ * Without a target, the batch size climbs in whichever direction last improved the processor's throughput, and
+ * the delay is kept at its upper bound so batches have the most time to fill.
+ */
+public final class AdaptiveBatching {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long minDelayInMillis;
+    private final long maxDelayInMillis;
+    private final long targetLatencyInMillis;
+
+    private AdaptiveBatching(int minBatchSize, int maxBatchSize, long minDelayInMillis, long maxDelayInMillis,
+                             long targetLatencyInMillis) {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("batch size bounds must satisfy 1 <= min <= max");
+        }
+        if (minDelayInMillis < 0 || maxDelayInMillis < minDelayInMillis) {
+            throw new IllegalArgumentException("delay bounds must satisfy 0 <= min <= max");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.minDelayInMillis = minDelayInMillis;
+        this.maxDelayInMillis = maxDelayInMillis;
+        this.targetLatencyInMillis = targetLatencyInMillis;
+    }
+
+    /**
+     * Tunes towards a target latency for each job, from submission until its batch has been processed
+     *
+     * @param minBatchSize the smallest batch size to use
+     * @param maxBatchSize the largest batch size to use
+     * @param minDelayInMillis the shortest maximum delay to use
+     * @param maxDelayInMillis the longest maximum delay to use
+     * @param targetLatencyInMillis the latency to aim for
+     * @return the settings
+     */
+    public static AdaptiveBatching targetLatency(int minBatchSize, int maxBatchSize, long minDelayInMillis,
+                                                 long maxDelayInMillis, long targetLatencyInMillis) {
+        if (targetLatencyInMillis < 1) {
+            throw new IllegalArgumentException("targetLatencyInMillis must be at least 1");
+        }
+        return new AdaptiveBatching(minBatchSize, maxBatchSize, minDelayInMillis, maxDelayInMillis, targetLatencyInMillis);
+    }
+
+    /**
+     * Tunes towards the highest throughput from the processor
+     *
+     * @param minBatchSize the smallest batch size to use
+     * @param maxBatchSize the largest batch size to use
+     * @param minDelayInMillis the shortest maximum delay to use
+     * @param maxDelayInMillis the longest maximum delay to use
+     * @return the settings
+     */
+    public static AdaptiveBatching maxThroughput(int minBatchSize, int maxBatchSize, long minDelayInMillis,
+                                                 long maxDelayInMillis) {
+        return new AdaptiveBatching(minBatchSize, maxBatchSize, minDelayInMillis, maxDelayInMillis, 0);
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMinDelayInMillis() {
+        return minDelayInMillis;
+    }
+
+    public long getMaxDelayInMillis() {
+        return maxDelayInMillis;
+    }
+
+    /**
+     * @return the target latency in milliseconds, or 0 when tuning for throughput
+     */
+    public long getTargetLatencyInMillis() {
+        return targetLatencyInMillis;
+    }
+}
@@ -0,0 +1,35 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Interface that defines the contract with a service that processes jobs in batches without blocking the
+ * calling thread
+ */
+public interface AsyncBatchProcessor {
+
+    /**
+     * Start processing a <code>List</code> of <code>Job</code>s.  Implementations should return promptly and
+     * complete the returned stage once the batch has been processed.
+     *
+     * @param jobs the jobs to process
+     * @return a <code>CompletionStage</code> that completes with the results of each job
+     */
+    CompletionStage<List<JobResult>> processAsync(List<Job> jobs);
+
+    /**
+     * Adapts a blocking <code>BatchProcessor</code> so it can be driven asynchronously
+     *
+     * @param batchProcessor the blocking processor
+     * @param executor the executor each call to <code>BatchProcessor.process</code> will run on
+     * @return an <code>AsyncBatchProcessor</code> that delegates to the given processor
+     */
+    static AsyncBatchProcessor fromBlocking(@Nonnull BatchProcessor batchProcessor, @Nonnull Executor executor) {
+        return jobs -> CompletableFuture.supplyAsync(() -> batchProcessor.process(jobs), executor);
+    }
+
+}
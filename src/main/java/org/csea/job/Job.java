@@ -13,4 +13,31 @@ public interface Job {
      */
     UUID getId();
 
+    /**
+     * The key used to choose the lane of a <code>ShardedJobExecutionService</code> this Job runs in.  Jobs with equal
+     * keys always run in the same lane, in the order they were submitted.
+     * @return the partition key.  Defaults to the Job's id
+     */
+    default Object getPartitionKey() {
+        return getId();
+    }
+
+    /**
+     * The priority class this Job is batched in, when the service is configured with priority classes.  Class 0 is
+     * the most urgent, and a class beyond the last configured one is treated as the last.
+     * @return the priority class.  Defaults to 0
+     */
+    default int getPriorityClass() {
+        return 0;
+    }
+
+    /**
+     * The weight this Job adds to its batch, when the service limits the total weight of a batch, for example its
+     * serialized size in bytes.
+     * @return the weight.  Defaults to 1, so the weight of a batch is its number of Jobs
+     */
+    default long getWeight() {
+        return 1;
+    }
+
 }
@@ -1,27 +1,158 @@
 package org.csea.job;
 
+import org.csea.job.journal.JobJournal;
+import org.csea.job.metrics.JobExecutionServiceMXBean;
+import org.csea.job.metrics.MetricsListener;
+import org.csea.job.metrics.MetricsSnapshot;
+
 import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * A service that accepts <code>Job</code> objects and orchestrates when they are sent to a <code>BatchProcessor</code>
  */
 public class JobExecutionService {
 
+    static final String NO_RESULT_MESSAGE = "The BatchProcessor did not return a result for this Job";
+
+    static final String AT_CAPACITY_MESSAGE = "The JobExecutionService has no capacity for this Job";
+
+    static final String DROPPED_MESSAGE = "The Job was dropped to make room for newer Jobs";
+
+    static final String PROCESSOR_FAILED_MESSAGE = "The BatchProcessor failed: ";
+
+    static final String JOURNAL_FAILED_MESSAGE = "The journal could not be committed: ";
+
     private int batchSize;
-    private BatchProcessor batchProcessor;
+    private AsyncBatchProcessor batchProcessor;
+
+    /** Used instead of batchProcessor when results are streamed back a Job at a time.  Null otherwise */
+    private final StreamingBatchProcessor streamingProcessor;
 
     private long maxDelayInMillis;
 
-    private long lastRun = System.currentTimeMillis();
+    /** Adjusts the batch size and maximum delay at runtime.  Null when they are fixed */
+    private final AdaptiveBatchTuner tuner;
+
+    /** The maximum delay of each priority class, in nanoseconds.  Null when there is a single class */
+    private final long[] classDelaysInNanos;
+
+    private final PendingQueue<PendingDetails> pendingJobs;
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /** The most total weight a batch may carry, or <code>Long.MAX_VALUE</code> when batches are limited by count alone */
+    private final long maxBatchWeight;
+
+    /** The total weight of the pending jobs.  Only kept when there is a maximum batch weight */
+    private final AtomicLong pendingWeight = new AtomicLong();
+
+    /** Whether the last batch taken was closed by its weight.  Only accessed by the thread assembling batches */
+    private boolean lastBatchFullByWeight;
+
+    /** The number and total weight of the jobs taken so far for a batch.  Only accessed by the thread assembling batches */
+    private int takenJobs;
+    private long takenWeight;
+
+    /** When the last journal commit began.  Only accessed by the thread assembling batches */
+    private long committedAt;
+
+    private final Predicate<PendingDetails> fitsBatch = this::fitsBatch;
+
+    /** The single thread that assembles batches.  It only has work when signalled by a producer or the flush timer */
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+    private final Runnable dispatchTask = this::dispatch;
+
+    private final Runnable flushTimerTask = this::onFlushTimer;
+
+    /** Fires when the pending job with the earliest deadline reaches it.  Only accessed on the scheduler thread */
+    private ScheduledFuture<?> flushTimer;
+
+    /** The deadline the flush timer is armed for, so a producer queueing a more urgent job knows to wake the scheduler */
+    private volatile long flushTimerDeadline;
+
+    private volatile boolean flushTimerArmed;
+
+    private volatile boolean shutdown;
+
+    private final int maxInFlightBatches;
+
+    private final Semaphore inFlightBatches;
+
+    /** The buffers for batches, one per in-flight permit, so assembling and completing a batch allocates nothing */
+    private final MpscQueue<Batch> freeBatches = new MpscQueue<>();
+
+    /** Set by the scheduler when it has a batch to send but no in-flight permit, so a completing batch wakes it */
+    private final AtomicBoolean awaitingInFlightPermit = new AtomicBoolean();
 
-    private final List<PendingDetails> pendingJobs = new java.util.ArrayList<>();
+    /** The most Jobs that may be pending, or <code>Integer.MAX_VALUE</code> when the service is unbounded */
+    private final int capacity;
 
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final OverflowPolicy overflowPolicy;
+
+    private final long overflowTimeoutInMillis;
+
+    /** One permit per free pending slot.  Null when unbounded, or when overflow is handled by dropping old Jobs */
+    private final CapacityPermits capacityPermits;
+
+    private final JobMetrics metrics = new JobMetrics();
+
+    private final MetricsListener metricsListener;
+
+    /** The name the service's MXBean is registered under, or null if it is not registered */
+    private ObjectName mbeanName;
+
+    /** Set when the service created an executor for a blocking processor and so is responsible for shutting it down */
+    private final ExecutorService ownedDispatchExecutor;
+
+    /** Records Jobs as they are submitted and completed, so unfinished ones survive a restart.  Null when not durable */
+    private final JobJournal journal;
+
+    private List<JobResult> recoveredResults = List.of();
+
+    /** The result shared by every submission of each Job that is pending or running.  Null when not deduplicating */
+    private final ConcurrentHashMap<UUID, JobResult> inFlightResults;
+
+    /** Results of recently completed Jobs.  Null when not deduplicating, or not keeping completed results */
+    private final RecentResultCache recentResults;
+
+    /** Null when failed Jobs are not retried */
+    private final RetryPolicy retryPolicy;
+
+    /** Groups of failed Jobs waiting out their backoff before going back in the pending queue */
+    private final Set<Retry> waitingRetries = ConcurrentHashMap.newKeySet();
 
     /**
      * Creates a new instance of the service
@@ -37,103 +168,1518 @@ public class JobExecutionService {
      * Creates a new instance of the service
      *
      * @param batchSize the maximum number of Jobs that will be sent to the processor at any one time
-     * @param maxDelayInMillis the time in milliseconds that the service will check for pending requests
+     * @param maxDelayInMillis the longest time in milliseconds a job will stay pending waiting for its batch to fill
      * @param batchProcessor the <code>BatchProcessor</code> to use when servicing the Jobs
      */
     public JobExecutionService(int batchSize, long maxDelayInMillis, @Nonnull BatchProcessor batchProcessor) {
-        this.batchSize = batchSize;
-        this.batchProcessor = batchProcessor;
-        this.maxDelayInMillis = maxDelayInMillis;
+        this(builder(batchSize, batchProcessor).maxDelayInMillis(maxDelayInMillis));
+    }
+
+    private JobExecutionService(Builder builder) {
+        this.batchSize = builder.batchSize;
+        this.maxDelayInMillis = builder.maxDelayInMillis;
+        this.maxBatchWeight = builder.maxBatchWeight;
+        if (builder.classDelaysInMillis == null) {
+            this.classDelaysInNanos = null;
+            // a single class is plain FIFO, so the queue never needs a deadline
+            this.pendingJobs = new PendingQueue<>(1, details -> 0, details -> details.enqueuedAt);
+        } else {
+            long[] delays = new long[builder.classDelaysInMillis.length];
+            for (int i = 0; i < delays.length; i++) {
+                delays[i] = TimeUnit.MILLISECONDS.toNanos(builder.classDelaysInMillis[i]);
+            }
+            this.classDelaysInNanos = delays;
+            this.pendingJobs = new PendingQueue<>(delays.length, details -> details.priorityClass,
+                    details -> details.enqueuedAt + delays[details.priorityClass]);
+        }
+        this.maxInFlightBatches = builder.maxInFlightBatches;
+        this.inFlightBatches = new Semaphore(maxInFlightBatches);
+        for (int i = 0; i < maxInFlightBatches; i++) {
+            freeBatches.offer(new Batch());
+        }
+        this.tuner = builder.adaptiveBatching == null
+                ? null
+                : new AdaptiveBatchTuner(builder.adaptiveBatching, batchSize, maxDelayInMillis);
+        this.capacity = builder.capacity;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.overflowTimeoutInMillis = builder.overflowTimeoutInMillis;
+        this.inFlightResults = builder.deduplicate ? new ConcurrentHashMap<>() : null;
+        this.recentResults = builder.deduplicate && builder.maxRecentResults > 0 && builder.recentResultTtlInMillis > 0
+                ? new RecentResultCache(builder.maxRecentResults, builder.recentResultTtlInMillis)
+                : null;
+        this.journal = builder.journal;
+        this.retryPolicy = builder.retryPolicy;
+        boolean usePermits = capacity != Integer.MAX_VALUE && overflowPolicy != OverflowPolicy.DROP_OLDEST;
+        this.capacityPermits = usePermits ? new CapacityPermits(capacity) : null;
+
+        this.streamingProcessor = builder.streamingBatchProcessor;
+        if (streamingProcessor != null) {
+            this.batchProcessor = null;
+            this.ownedDispatchExecutor = null;
+        } else if (builder.asyncBatchProcessor != null) {
+            this.batchProcessor = builder.asyncBatchProcessor;
+            this.ownedDispatchExecutor = null;
+        } else if (builder.dispatchExecutor != null) {
+            this.batchProcessor = AsyncBatchProcessor.fromBlocking(builder.batchProcessor, builder.dispatchExecutor);
+            this.ownedDispatchExecutor = null;
+        } else if (builder.virtualThreads || maxInFlightBatches > 1) {
+            this.ownedDispatchExecutor = builder.virtualThreads
+                    ? Executors.newVirtualThreadPerTaskExecutor()
+                    : Executors.newFixedThreadPool(maxInFlightBatches);
+            this.batchProcessor = AsyncBatchProcessor.fromBlocking(builder.batchProcessor, ownedDispatchExecutor);
+        } else {
+            // a single batch in flight, processed directly on the scheduler thread
+            this.batchProcessor = AsyncBatchProcessor.fromBlocking(builder.batchProcessor, Runnable::run);
+            this.ownedDispatchExecutor = null;
+        }
+
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        // the flush timer is cancelled whenever a more urgent job arrives
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        this.metricsListener = builder.metricsListener;
+    }
+
+    /**
+     * Starts the work that hands the service out to other code, which waits until it has been fully constructed:
+     * metrics reports, the MXBean, and queueing the Jobs recovered from the journal.  The public constructors have
+     * none of these to start.
+     *
+     * @param lane the lane of a <code>ShardedJobExecutionService</code> the service is, or -1 if it stands alone
+     * @return this service
+     */
+    private JobExecutionService start(Builder builder, int lane) {
+        if (metricsListener != null) {
+            scheduler.scheduleAtFixedRate(() -> metricsListener.onMetrics(getMetrics()),
+                    builder.metricsIntervalInMillis, builder.metricsIntervalInMillis, TimeUnit.MILLISECONDS);
+        }
+        if (builder.jmxName != null) {
+            mbeanName = registerMBean(builder.jmxName, lane);
+        }
+        if (journal != null) {
+            List<Job> recoveredJobs = journal.recover();
+            if (capacityPermits != null) {
+                // recovered Jobs take their pending slots up front, even if that leaves the service over capacity
+                capacityPermits.take(recoveredJobs.size());
+            }
+            recoveredResults = resubmit(recoveredJobs);
+        }
+        return this;
+    }
+
+    /**
+     * Queues the Jobs recovered from the journal.  They are already recorded there, so are not recorded again
+     */
+    private List<JobResult> resubmit(List<Job> recoveredJobs) {
+        List<JobResult> results = new ArrayList<>(recoveredJobs.size());
+        List<PendingDetails> details = new ArrayList<>(recoveredJobs.size());
+        for (Job job : recoveredJobs) {
+            JobResult result = new JobResult(job.getId());
+            if (inFlightResults != null) {
+                inFlightResults.put(job.getId(), result);
+            }
+            results.add(result);
+            details.add(new PendingDetails(job, result));
+        }
+        publish(details, false);
+        return results;
+    }
 
-        scheduler.scheduleAtFixedRate(this::checkPending, maxDelayInMillis, maxDelayInMillis, TimeUnit.MILLISECONDS);
+    private ObjectName registerMBean(String jmxName, int lane) {
+        try {
+            ObjectName name = new ObjectName("org.csea.job:type=JobExecutionService,name=" + ObjectName.quote(jmxName)
+                    + (lane < 0 ? "" : ",lane=" + lane));
+            StandardMBean mbean = new StandardMBean(new JobExecutionServiceMXBeanAdapter(this, metrics),
+                    JobExecutionServiceMXBean.class, true);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            return name;
+        } catch (JMException ex) {
+            throw new IllegalStateException("Could not register the JobExecutionService MXBean " + jmxName, ex);
+        }
+    }
+
+    /**
+     * Creates a <code>Builder</code> for configuring a new service
+     *
+     * @param batchSize the maximum number of Jobs that will be sent to the processor at any one time
+     * @param batchProcessor the <code>BatchProcessor</code> to use when servicing the Jobs
+     * @return a new <code>Builder</code>
+     */
+    public static Builder builder(int batchSize, @Nonnull BatchProcessor batchProcessor) {
+        return new Builder(batchSize, batchProcessor, null, null);
+    }
+
+    /**
+     * Creates a <code>Builder</code> for a service that drives an <code>AsyncBatchProcessor</code>.  No thread is
+     * held while a batch is outstanding, so <code>maxInFlightBatches</code> can be set well above the number of
+     * threads available.
+     *
+     * @param batchSize the maximum number of Jobs that will be sent to the processor at any one time
+     * @param asyncBatchProcessor the <code>AsyncBatchProcessor</code> to use when servicing the Jobs
+     * @return a new <code>Builder</code>
+     */
+    public static Builder asyncBuilder(int batchSize, @Nonnull AsyncBatchProcessor asyncBatchProcessor) {
+        return new Builder(batchSize, null, asyncBatchProcessor, null);
+    }
+
+    /**
+     * Creates a <code>Builder</code> for a service that drives a <code>StreamingBatchProcessor</code>.  Each Job's
+     * <code>JobResult</code> is completed as soon as the processor hands its result to the sink, rather than when the
+     * slowest Job of its batch has finished.  As with an <code>AsyncBatchProcessor</code>, no thread is held while a
+     * batch is outstanding.
+     *
+     * @param batchSize the maximum number of Jobs that will be sent to the processor at any one time
+     * @param streamingBatchProcessor the <code>StreamingBatchProcessor</code> to use when servicing the Jobs
+     * @return a new <code>Builder</code>
+     */
+    public static Builder streamingBuilder(int batchSize, @Nonnull StreamingBatchProcessor streamingBatchProcessor) {
+        return new Builder(batchSize, null, null, streamingBatchProcessor);
     }
 
     /**
-     * Submit a job for execution
+     * Submit a job for execution.  If the service has a capacity and it is full, the configured
+     * <code>OverflowPolicy</code> decides whether this waits, fails the Job, throws or drops an older Job.
+     * When deduplicating, a Job whose id is already pending, running or recently completed is not queued again,
+     * and the existing <code>JobResult</code> is returned.
+     *
      * @param job the job to execute
      * @return a <code>JobResult</code> for the Job
+     * @throws RejectedExecutionException if the service has been shut down, or is full and the policy is REJECT
      */
     public JobResult submit(Job job) {
+        checkNotShutdown();
+        JobResult result = new JobResult(job.getId());
+        JobResult existing = claim(result);
+        if (existing != null) {
+            return existing;
+        }
+        if (reserveFor(result) == 0) {
+            metrics.rejectedJobs.increment();
+            abandon(result);
+            return result;
+        }
+        return enqueue(job, result);
+    }
+
+    /**
+     * Submit a job for execution if there is capacity for it right now.  This never blocks, whatever the
+     * <code>OverflowPolicy</code>.
+     *
+     * @param job the job to execute
+     * @return a <code>JobResult</code> for the Job, or empty if the service is full
+     * @throws RejectedExecutionException if the service has been shut down
+     */
+    public Optional<JobResult> trySubmit(Job job) {
+        checkNotShutdown();
         JobResult result = new JobResult(job.getId());
-        synchronized (pendingJobs) {
-            pendingJobs.add(new PendingDetails(job, result));
+        JobResult existing = claim(result);
+        if (existing != null) {
+            return Optional.of(existing);
+        }
+        if (capacityPermits != null ? !capacityPermits.tryAcquire() : pendingCount.get() >= capacity) {
+            metrics.rejectedJobs.increment();
+            abandon(result);
+            return Optional.empty();
+        }
+        return Optional.of(enqueue(job, result));
+    }
+
+    /**
+     * When deduplicating, makes the given result the one shared by submissions of its Job, unless the Job is
+     * already pending, running or recently completed.
+     *
+     * @return the existing result for the Job, or null if the given result was claimed or not deduplicating
+     */
+    private JobResult claim(JobResult result) {
+        if (inFlightResults == null) {
+            return null;
+        }
+        UUID jobId = result.getJobId();
+        JobResult existing = inFlightResults.putIfAbsent(jobId, result);
+        // completions are cached before they leave inFlightResults, so checking the cache second cannot miss one
+        if (existing == null && recentResults != null && (existing = recentResults.get(jobId)) != null) {
+            // a duplicate may already have been handed the claimed result, so it needs the same outcome
+            result.copy(existing);
+            inFlightResults.remove(jobId, result);
+        }
+        return existing;
+    }
+
+    /**
+     * Fails a claimed result whose Job could not be queued, along with any duplicates that were given it
+     */
+    private void abandon(JobResult result) {
+        result.copy(new JobResult(result.getJobId(), JobExecutionStatus.FAIL, AT_CAPACITY_MESSAGE));
+        if (inFlightResults != null) {
+            inFlightResults.remove(result.getJobId(), result);
+        }
+    }
+
+    private int reserveFor(JobResult result) {
+        try {
+            return reserve(1);
+        } catch (RejectedExecutionException ex) {
+            abandon(result);
+            throw ex;
         }
-        scheduler.submit(this::checkPending);
+    }
+
+    private JobResult enqueue(Job job, JobResult result) {
+        if (journal != null) {
+            journal.recordSubmitted(job);
+        }
+        PendingDetails details = new PendingDetails(job, result);
+        pendingJobs.offer(details);
+        metrics.submittedJobs.increment();
+        boolean fullByWeight = addPendingWeight(details.weight);
+        int count = pendingCount.incrementAndGet();
+        signalIfNeeded(count - 1, count, fullByWeight || isDueBeforeFlush(details));
         return result;
     }
 
+    private void checkNotShutdown() {
+        if (shutdown) {
+            throw new RejectedExecutionException("JobExecutionService has been shut down");
+        }
+    }
+
+    /**
+     * Submit a collection of jobs for execution.  The jobs are added to the pending queue together, with a single
+     * publish and at most one wake-up of the scheduler, which then sends back-to-back full batches.  This is much
+     * cheaper than calling {@link #submit(Job)} for each job when loading large numbers of jobs.
+     *
+     * If the service has a capacity, a collection larger than the free space is published in chunks as room
+     * becomes available under the BLOCK policy, and the Jobs that do not fit are given FAIL results under the FAIL
+     * and BLOCK_WITH_TIMEOUT policies.  Under the REJECT policy either the whole collection fits or none of it is
+     * queued.
+     *
+     * When deduplicating, Jobs whose ids are already pending, running or recently completed, or that appear earlier
+     * in the collection, are given the existing <code>JobResult</code> rather than queued again.
+     *
+     * @param jobs the jobs to execute
+     * @return a <code>JobResult</code> for each Job, in the iteration order of <code>jobs</code>
+     * @throws RejectedExecutionException if the service has been shut down, or the policy is REJECT and the jobs
+     * do not all fit
+     */
+    public List<JobResult> submitAll(@Nonnull Collection<? extends Job> jobs) {
+        checkNotShutdown();
+        List<JobResult> results = new ArrayList<>(jobs.size());
+        if (overflowPolicy == OverflowPolicy.REJECT && capacityPermits != null && !jobs.isEmpty()
+                && !capacityPermits.tryAcquire(jobs.size())) {
+            metrics.rejectedJobs.add(jobs.size());
+            throw new RejectedExecutionException(AT_CAPACITY_MESSAGE);
+        }
+        boolean reserved = overflowPolicy == OverflowPolicy.REJECT;
+        boolean full = false;
+        List<PendingDetails> chunk = new ArrayList<>(Math.min(jobs.size(), capacity));
+        int granted = 0;
+        int queued = 0;
+        for (Job job : jobs) {
+            JobResult result = new JobResult(job.getId());
+            JobResult existing = claim(result);
+            if (existing != null) {
+                results.add(existing);
+                continue;
+            }
+            if (!full && !reserved && granted == chunk.size()) {
+                publish(chunk, true);
+                chunk.clear();
+                granted = reserve(Math.min(jobs.size() - results.size(), capacity));
+                full = granted == 0;
+            }
+            results.add(result);
+            if (full) {
+                metrics.rejectedJobs.increment();
+                abandon(result);
+                continue;
+            }
+            chunk.add(new PendingDetails(job, result));
+            queued++;
+        }
+        if (capacityPermits != null) {
+            // slots reserved for Jobs that turned out to be duplicates
+            capacityPermits.release(reserved ? jobs.size() - queued : granted - chunk.size());
+        }
+        publish(chunk, true);
+        return results;
+    }
+
+    private void publish(List<PendingDetails> details, boolean record) {
+        if (details.isEmpty()) {
+            return;
+        }
+        if (journal != null && record) {
+            journal.recordSubmitted(details.stream().map(PendingDetails::getJob).toList());
+            // queued only once recorded, so that any commit begun after enqueuedAt covers them
+            long now = System.nanoTime();
+            for (PendingDetails detail : details) {
+                detail.enqueuedAt = now;
+            }
+        }
+        pendingJobs.offerAll(details);
+        metrics.submittedJobs.add(details.size());
+        boolean fullByWeight = addPendingWeight(details);
+        int count = pendingCount.addAndGet(details.size());
+        signalIfNeeded(count - details.size(), count, fullByWeight || isAnyDueBeforeFlush(details));
+    }
+
+    /**
+     * Reserves pending slots for Jobs about to be queued, applying the overflow policy when there are not enough.
+     *
+     * @param wanted the number of slots wanted, no more than the capacity
+     * @return the number of slots reserved, which is all of them unless the service is full and the policy is
+     * FAIL or BLOCK_WITH_TIMEOUT, in which case it may be fewer or none
+     */
+    private int reserve(int wanted) {
+        if (capacityPermits == null) {
+            return wanted;
+        }
+        try {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    capacityPermits.acquire(wanted);
+                    return wanted;
+                case BLOCK_WITH_TIMEOUT:
+                    return capacityPermits.tryAcquire(wanted, overflowTimeoutInMillis, TimeUnit.MILLISECONDS) ? wanted : 0;
+                case REJECT:
+                    if (!capacityPermits.tryAcquire(wanted)) {
+                        metrics.rejectedJobs.add(wanted);
+                        throw new RejectedExecutionException(AT_CAPACITY_MESSAGE);
+                    }
+                    return wanted;
+                default:
+                    int available;
+                    while ((available = capacityPermits.availablePermits()) > 0) {
+                        int granted = Math.min(available, wanted);
+                        if (capacityPermits.tryAcquire(granted)) {
+                            return granted;
+                        }
+                    }
+                    return 0;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for capacity", ex);
+        }
+    }
+
+    /**
+     * The number of Jobs that will be sent to the processor at once.  With adaptive batching this is the current,
+     * tuned value.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return tuner == null ? batchSize : tuner.getBatchSize();
+    }
+
+    /**
+     * The longest time a Job will stay pending waiting for its batch to fill.  With adaptive batching this is the
+     * current, tuned value.  With priority classes each class has its own delay instead, and this is not used.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getMaxDelayInMillis() {
+        return tuner == null ? maxDelayInMillis : tuner.getMaxDelayInMillis();
+    }
+
+    /**
+     * Looks up the result of a Job by its id, when the service is deduplicating
+     *
+     * @param jobId the id of the Job
+     * @return the result of the Job if it is pending, running or recently completed, otherwise empty.  Always
+     * empty if the service is not deduplicating
+     */
+    public Optional<JobResult> getResult(@Nonnull UUID jobId) {
+        if (inFlightResults == null) {
+            return Optional.empty();
+        }
+        JobResult result = inFlightResults.get(jobId);
+        if (result == null && recentResults != null) {
+            result = recentResults.get(jobId);
+        }
+        return Optional.ofNullable(result);
+    }
+
+    /**
+     * The results of the Jobs the service recovered from its journal when it was created, which it queued ahead of
+     * any newly submitted Jobs
+     *
+     * @return a <code>JobResult</code> for each recovered Job, in the order they were originally submitted, or an
+     * empty list if the service has no journal or it held no unfinished Jobs
+     */
+    @Nonnull
+    public List<JobResult> getRecoveredResults() {
+        return recoveredResults;
+    }
+
+    /**
+     * A snapshot of the service's metrics: counts of jobs and batches, queue depth, batch fill ratio, and
+     * histograms of the time jobs spend pending and running and of processor latency.
+     *
+     * @return the current metrics
+     */
+    @Nonnull
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot(getQueueDepth(), getInFlightBatchCount());
+    }
+
+    int getQueueDepth() {
+        return Math.max(0, pendingCount.get());
+    }
+
+    int getInFlightBatchCount() {
+        return maxInFlightBatches - inFlightBatches.availablePermits();
+    }
+
     /**
-     * Shuts down the service.   Any pending jobs will be send to the <code>BatchProcessor</code> before returning
+     * Shuts down the service.   Any pending jobs will be send to the <code>BatchProcessor</code> before returning.
+     * Jobs waiting to be retried are sent without waiting out their backoff.  A journal is committed but left open.
      */
     public void shutdown() {
+        shutdown = true;
         scheduler.shutdown();
-        while (!pendingJobs.isEmpty()) {
-            sendNextBatch();
+        try {
+            // the queue only supports a single consumer, so let the scheduler finish before draining from this thread
+            scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        do {
+            while (!pendingJobs.isEmpty()) {
+                sendNextBatch(true);
+            }
+            // holding every permit means no batch is still with the processor
+            inFlightBatches.acquireUninterruptibly(maxInFlightBatches);
+            inFlightBatches.release(maxInFlightBatches);
+            // Jobs waiting to be retried go back straight away, there is no longer a scheduler to wait for them
+            for (Retry retry : waitingRetries) {
+                retry.run();
+            }
+        } while (!pendingJobs.isEmpty());
+        if (ownedDispatchExecutor != null) {
+            ownedDispatchExecutor.shutdown();
+        }
+        if (journal != null) {
+            journal.commit();
+        }
+        if (metricsListener != null) {
+            metricsListener.onMetrics(getMetrics());
+        }
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException ex) {
+                // already unregistered
+            }
+        }
+    }
+
+    /**
+     * Adds the weight of newly queued jobs to the pending weight, when batches have a maximum weight
+     *
+     * @return true if the pending weight has just reached a full batch
+     */
+    private boolean addPendingWeight(long weight) {
+        if (maxBatchWeight == Long.MAX_VALUE) {
+            return false;
+        }
+        long total = pendingWeight.addAndGet(weight);
+        return total >= maxBatchWeight && total - weight < maxBatchWeight;
+    }
+
+    private boolean addPendingWeight(List<PendingDetails> details) {
+        if (maxBatchWeight == Long.MAX_VALUE) {
+            return false;
+        }
+        long weight = 0;
+        for (PendingDetails detail : details) {
+            weight += detail.weight;
+        }
+        return addPendingWeight(weight);
+    }
+
+    private boolean hasFullBatch() {
+        return pendingCount.get() >= getBatchSize()
+                || (maxBatchWeight != Long.MAX_VALUE && pendingWeight.get() >= maxBatchWeight);
+    }
+
+    /**
+     * Wakes the scheduler thread when the pending count becomes non-zero, so it can arm the flush timer, when it
+     * reaches a full batch, when it runs over capacity and old Jobs need dropping, or when the pending jobs need
+     * sending straight away for another reason: they have reached a full batch by weight, or one of them is due
+     * before the flush timer fires.  Every other submission leaves the scheduler alone.
+     */
+    private void signalIfNeeded(int previousCount, int count, boolean sendNow) {
+        int batchSize = getBatchSize();
+        if (sendNow
+                || (previousCount <= 0 && count > 0)
+                || (previousCount < batchSize && count >= batchSize)
+                || (previousCount <= capacity && count > capacity)) {
+            scheduler.execute(dispatchTask);
+        }
+    }
+
+    /**
+     * Wakes the scheduler thread if the pending jobs already make a full batch, for when the batch size has shrunk
+     * beneath them
+     */
+    private void signalIfFull() {
+        if (!shutdown && hasFullBatch()) {
+            try {
+                scheduler.execute(dispatchTask);
+            } catch (RejectedExecutionException ex) {
+                // shutting down, shutdown() sends whatever is still pending
+            }
+        }
+    }
+
+    /**
+     * Only a job in a more urgent class than those already pending can be due before the flush timer fires, as
+     * within a class deadlines are in the order jobs were queued
+     */
+    private boolean isDueBeforeFlush(PendingDetails details) {
+        return classDelaysInNanos != null && flushTimerArmed && deadlineOf(details) - flushTimerDeadline < 0;
+    }
+
+    private boolean isAnyDueBeforeFlush(List<PendingDetails> details) {
+        if (classDelaysInNanos == null) {
+            return false;
+        }
+        for (PendingDetails detail : details) {
+            if (isDueBeforeFlush(detail)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the time by which a pending job should be sent, in <code>System.nanoTime()</code> terms
+     */
+    private long deadlineOf(PendingDetails details) {
+        return details.enqueuedAt + (classDelaysInNanos == null
+                ? TimeUnit.MILLISECONDS.toNanos(getMaxDelayInMillis())
+                : classDelaysInNanos[details.priorityClass]);
+    }
+
+    private void onFlushTimer() {
+        flushTimer = null;
+        flushTimerArmed = false;
+        dispatch();
+    }
+
+    /**
+     * Sends every full batch, then any partial batch whose most urgent job has reached its deadline.  Batches are
+     * filled earliest deadline first.  Whatever is left is not yet due, so the flush timer is armed for the earliest
+     * deadline among it.
+     */
+    private void dispatch() {
+        dropOverflow();
+        while (hasFullBatch() && !pendingJobs.isEmpty()) {
+            if (!sendNextBatch(false)) {
+                // the completing batch wakes the scheduler again
+                return;
+            }
+        }
+        PendingDetails earliest;
+        while ((earliest = pendingJobs.peek()) != null) {
+            long deadline = deadlineOf(earliest);
+            if (deadline - System.nanoTime() > 0) {
+                armFlushTimer(deadline);
+                // a more urgent job queued before the timer's deadline was published may not have woken the scheduler
+                PendingDetails latest = pendingJobs.peek();
+                if (latest == earliest || deadlineOf(latest) - deadline >= 0) {
+                    return;
+                }
+                continue;
+            }
+            if (!sendNextBatch(false)) {
+                return;
+            }
         }
     }
 
-    private void checkPending() {
-        if (pendingJobs.isEmpty()) {
-            // do nothing
+    private void dropOverflow() {
+        if (overflowPolicy != OverflowPolicy.DROP_OLDEST) {
             return;
         }
+        PendingDetails dropped;
+        while (pendingCount.get() > capacity && (dropped = pendingJobs.pollLowestPriority()) != null) {
+            pendingCount.decrementAndGet();
+            if (maxBatchWeight != Long.MAX_VALUE) {
+                pendingWeight.addAndGet(-dropped.weight);
+            }
+            metrics.droppedJobs.increment();
+            if (journal != null) {
+                journal.recordCompleted(List.of(dropped.job.getId()));
+            }
+            dropped.jobResult.copy(new JobResult(dropped.job.getId(), JobExecutionStatus.FAIL, DROPPED_MESSAGE));
+            if (inFlightResults != null) {
+                inFlightResults.remove(dropped.job.getId(), dropped.jobResult);
+            }
+        }
+    }
+
+    private void armFlushTimer(long deadline) {
+        if (flushTimer != null) {
+            if (deadline - flushTimerDeadline >= 0) {
+                // already armed to fire no later than needed
+                return;
+            }
+            flushTimer.cancel(false);
+        }
+        flushTimerDeadline = deadline;
+        flushTimerArmed = true;
+        flushTimer = scheduler.schedule(flushTimerTask, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends the next batch of pending jobs, if any.  Once maxInFlightBatches calls are outstanding no further
+     * batch is assembled, leaving jobs pending.
+     *
+     * @param waitForPermit whether to block until a batch completes when the limit has been reached.  The scheduler
+     *                      thread never blocks, so the flush timer and dropping old jobs keep working
+     * @return false if nothing was sent because the in-flight limit has been reached
+     */
+    private boolean sendNextBatch(boolean waitForPermit) {
+        if (waitForPermit) {
+            inFlightBatches.acquireUninterruptibly();
+        } else {
+            // set before trying, so either the try sees a released permit or the releasing batch sees the flag
+            awaitingInFlightPermit.set(true);
+            if (!inFlightBatches.tryAcquire()) {
+                return false;
+            }
+            awaitingInFlightPermit.set(false);
+        }
+        RuntimeException commitFailure = null;
+        if (journal != null) {
+            // group commit: one force covers every Job queued up to now, which is all this batch may take
+            committedAt = System.nanoTime();
+            try {
+                journal.commit();
+            } catch (RuntimeException ex) {
+                commitFailure = ex;
+            }
+        }
+        // every permit holder finds a batch, as a completed batch is given back before its permit
+        Batch batch = freeBatches.poll();
+        int batchSize = getBatchSize();
+        if (nextJobs(batch, batchSize) == 0) {
+            freeBatches.offer(batch);
+            inFlightBatches.release();
+            if (commitFailure != null) {
+                throw commitFailure;
+            }
+            return true;
+        }
+        if (commitFailure != null) {
+            // the jobs cannot be sent without being durable, and left pending they would fail the same way every time
+            failJobs(batch, JOURNAL_FAILED_MESSAGE + commitFailure);
+            return true;
+        }
+        batch.prepare();
+        List<PendingDetails> jobDetails = batch.jobDetails;
+        batch.full = jobDetails.size() >= batchSize || lastBatchFullByWeight;
+        // a batch closed by its weight counts as full, however many jobs it holds
+        metrics.recordBatch(jobDetails.size(), batch.full ? jobDetails.size() : batchSize);
+        batch.sentAt = System.nanoTime();
+        CompletionStage<?> processing = sendJobs(batch);
+        if (processing == null) {
+            batch.accept(null, batch.failure);
+        } else {
+            processing.whenComplete(batch);
+        }
+        return true;
+    }
+
+    /**
+     * Fails the jobs of a batch that could not be sent, as though the processor had returned no results for them,
+     * and gives back the batch and its permit
+     */
+    private void failJobs(Batch batch, String message) {
+        batch.prepare();
+        try {
+            for (PendingDetails details : batch.jobDetails) {
+                // counts as an attempt, so the retry policy's limit applies
+                details.attempts++;
+            }
+            finishJobs(batch, message);
+        } finally {
+            batch.clear();
+            freeBatches.offer(batch);
+            releaseInFlightPermit();
+        }
+    }
+
+    private void releaseInFlightPermit() {
+        inFlightBatches.release();
+        if (awaitingInFlightPermit.getAndSet(false)) {
+            try {
+                scheduler.execute(dispatchTask);
+            } catch (RejectedExecutionException ex) {
+                // shutting down, shutdown() sends whatever is still pending
+            }
+        }
+    }
+
+    /**
+     * Takes the next batch from the pending queue.  It closes at batchSize jobs or, when there is a maximum batch
+     * weight, before the job that would take it over.  A job heavier than the maximum is sent in a batch of its own.
+     * With a journal it also closes before any job queued since the last commit began, as that commit may not have
+     * covered it.
+     *
+     * @return the number of jobs taken
+     */
+    private int nextJobs(Batch batch, int batchSize) {
+        List<PendingDetails> returnValue = batch.jobDetails;
+        int drained;
+        if (maxBatchWeight == Long.MAX_VALUE && journal == null) {
+            drained = pendingJobs.drain(batch.collector, batchSize);
+        } else {
+            // the weight counted is always that of the job removed, as the earliest job can change between calls
+            takenJobs = 0;
+            takenWeight = 0;
+            PendingDetails next;
+            while (takenJobs < batchSize && (next = pendingJobs.pollIf(fitsBatch)) != null) {
+                returnValue.add(next);
+                takenJobs++;
+                takenWeight += next.weight;
+            }
+            PendingDetails head;
+            lastBatchFullByWeight = takenJobs < batchSize && (head = pendingJobs.peek()) != null
+                    && takenWeight + head.weight > maxBatchWeight;
+            drained = takenJobs;
+            pendingWeight.addAndGet(-takenWeight);
+        }
+        pendingCount.addAndGet(-drained);
+        if (capacityPermits != null) {
+            capacityPermits.release(drained);
+        }
+        return drained;
+    }
+
+    /**
+     * Whether a job can join the batch being taken.  The first job goes whatever its weight
+     */
+    private boolean fitsBatch(PendingDetails details) {
+        if (journal != null && details.enqueuedAt - committedAt >= 0) {
+            return false;
+        }
+        return takenJobs == 0 || takenWeight + details.weight <= maxBatchWeight;
+    }
+
+    /**
+     * Hands a batch to the processor
+     *
+     * @return the processor's stage, or null if it threw, in which case the batch holds the exception
+     */
+    private CompletionStage<?> sendJobs(Batch batch) {
+        long now = System.nanoTime();
+        List<PendingDetails> jobDetails = batch.jobDetails;
+        // the processor may keep the list, so each batch has its own rather than sharing the reused buffers
+        Job[] batchJobs = new Job[jobDetails.size()];
+        for (int i = 0; i < jobDetails.size(); i++) {
+            PendingDetails details = jobDetails.get(i);
+            metrics.pendingTime.record(now - details.enqueuedAt);
+            details.attempts++;
+            details.jobResult.setStatus(JobExecutionStatus.RUNNING);
+            batchJobs[i] = details.job;
+        }
+        List<Job> jobs = Collections.unmodifiableList(Arrays.asList(batchJobs));
+        try {
+            if (streamingProcessor != null) {
+                batch.sink = new BatchSink(batch);
+                return streamingProcessor.process(jobs, batch.sink);
+            }
+            return batchProcessor.processAsync(jobs);
+        } catch (RuntimeException ex) {
+            batch.failure = ex;
+            return null;
+        }
+    }
+
+    /**
+     * Applies the processor's results to the pending jobs of a batch.  Processors normally return results in the
+     * order the jobs were sent, so each result is first checked against the job in the same position; only when
+     * that fails is the batch indexed by job id.  Any job left without a completed result is marked as failed, as
+     * are all of them when the processor returns null.  Null results, and results with no status, are ignored.
+     * Failed jobs the retry policy accepts are put aside to be retried instead of being completed.
+     */
+    private void completeJobs(Batch batch, List<JobResult> results) {
+        List<PendingDetails> jobDetails = batch.jobDetails;
+        JobResult[] outcomes = batch.outcomes;
+        if (results == null) {
+            results = List.of();
+        } else if (!(results instanceof RandomAccess)) {
+            results = new ArrayList<>(results);
+        }
+        Map<UUID, Integer> index = null;
+        int position = 0;
+        for (int r = 0; r < results.size(); r++) {
+            JobResult result = results.get(r);
+            if (result == null) {
+                continue;
+            }
+            int matched = position < jobDetails.size() && jobDetails.get(position).job.getId().equals(result.getJobId())
+                    ? position
+                    : -1;
+            position++;
+            if (matched < 0) {
+                if (index == null) {
+                    index = indexById(jobDetails);
+                }
+                matched = index.getOrDefault(result.getJobId(), -1);
+            }
+            if (matched >= 0 && result.getStatus() != null && result.getStatus().isComplete()) {
+                outcomes[matched] = result;
+            }
+        }
+        for (int i = 0; i < jobDetails.size(); i++) {
+            if (outcomes[i] != null) {
+                batch.states[i] = settle(jobDetails.get(i), outcomes[i]);
+                outcomes[i] = null;
+            }
+        }
+        finishJobs(batch, NO_RESULT_MESSAGE);
+    }
+
+    /**
+     * Fails every job of a finished batch that has not been settled, then schedules the retries and records the
+     * completed jobs
+     *
+     * @param missingMessage the failure message of the jobs that have no result
+     */
+    private void finishJobs(Batch batch, String missingMessage) {
+        List<PendingDetails> jobDetails = batch.jobDetails;
+        byte[] states = batch.states;
+        List<PendingDetails> retries = null;
+        for (int i = 0; i < jobDetails.size(); i++) {
+            PendingDetails details = jobDetails.get(i);
+            if (states[i] == Batch.UNSETTLED) {
+                states[i] = settle(details, new JobResult(details.job.getId(), JobExecutionStatus.FAIL, missingMessage));
+            }
+            if (states[i] == Batch.RETRYING) {
+                retries = addRetry(retries, details);
+            }
+        }
+        List<PendingDetails> completed = jobDetails;
+        if (retries != null) {
+            // taken before the retries are scheduled, after which they may complete at any time
+            completed = new ArrayList<>(jobDetails.size() - retries.size());
+            for (int i = 0; i < jobDetails.size(); i++) {
+                if (states[i] == Batch.COMPLETED) {
+                    completed.add(jobDetails.get(i));
+                }
+            }
+            scheduleRetries(retries);
+        }
+        if (journal != null && !completed.isEmpty()) {
+            journal.recordCompleted(completed.stream().map(details -> details.job.getId()).toList());
+        }
+        if (inFlightResults != null) {
+            retire(completed);
+        }
+    }
+
+    /**
+     * Completes a job with the outcome of its latest attempt, unless the outcome is a failure the retry policy
+     * accepts, in which case the job goes back to PENDING to wait for its retry
+     *
+     * @return the job's new state within its batch, COMPLETED or RETRYING
+     */
+    private byte settle(PendingDetails details, JobResult outcome) {
+        if (willRetry(details, outcome)) {
+            details.jobResult.setStatus(JobExecutionStatus.PENDING);
+            return Batch.RETRYING;
+        }
+        complete(details, outcome);
+        return Batch.COMPLETED;
+    }
+
+    private boolean willRetry(PendingDetails details, JobResult outcome) {
+        return retryPolicy != null && outcome.getStatus() == JobExecutionStatus.FAIL
+                && retryPolicy.shouldRetry(outcome, details.attempts);
+    }
+
+    private void complete(PendingDetails details, JobResult outcome) {
+        details.jobResult.copy(outcome);
+        metrics.recordCompletion(outcome.getStatus());
+    }
+
+    private static List<PendingDetails> addRetry(List<PendingDetails> retries, PendingDetails details) {
+        List<PendingDetails> list = retries == null ? new ArrayList<>() : retries;
+        list.add(details);
+        return list;
+    }
+
+    /**
+     * Puts the failed jobs of a batch back in the pending queue once their backoff is over.  Jobs on the same attempt
+     * go back together, so they are batched with whatever else is pending rather than trickling back one by one.
+     */
+    private void scheduleRetries(List<PendingDetails> failed) {
+        metrics.retriedJobs.add(failed.size());
+        Map<Integer, List<PendingDetails>> byAttempts = new HashMap<>();
+        for (PendingDetails details : failed) {
+            byAttempts.computeIfAbsent(details.attempts, attempts -> new ArrayList<>()).add(details);
+        }
+        for (Map.Entry<Integer, List<PendingDetails>> group : byAttempts.entrySet()) {
+            Retry retry = new Retry(group.getValue());
+            waitingRetries.add(retry);
+            if (!shutdown) {
+                try {
+                    scheduler.schedule(retry, retryPolicy.backoffInMillis(group.getKey()), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ex) {
+                    // shutting down, shutdown() sends whatever is still waiting
+                }
+            }
+        }
+    }
 
-        if ((pendingJobs.size() == batchSize) || isTimeToSend()) {
-            sendNextBatch();
+    /**
+     * Moves the results of completed Jobs from the in-flight results to the recent results, so a resubmission of
+     * one of them finds it in one or the other
+     */
+    private void retire(List<PendingDetails> jobDetails) {
+        if (recentResults != null) {
+            recentResults.putAll(jobDetails.stream().map(details -> details.jobResult).toList());
+        }
+        for (PendingDetails details : jobDetails) {
+            inFlightResults.remove(details.job.getId(), details.jobResult);
         }
     }
 
-    private void sendNextBatch() {
-        sendJobs(nextJobs());
+    private Map<UUID, Integer> indexById(List<PendingDetails> jobDetails) {
+        Map<UUID, Integer> index = new HashMap<>(jobDetails.size() * 4 / 3 + 1);
+        for (int i = 0; i < jobDetails.size(); i++) {
+            index.put(jobDetails.get(i).job.getId(), i);
+        }
+        return index;
     }
 
-    private boolean isTimeToSend() {
-        return (lastRun + maxDelayInMillis < System.currentTimeMillis());
+    /**
+     * A group of failed jobs waiting out their backoff.  Runs once, on the scheduler thread when the backoff is over
+     * or on the shutting down thread, whichever gets to it first.
+     */
+    private class Retry implements Runnable {
+        private final List<PendingDetails> jobDetails;
+
+        private Retry(List<PendingDetails> jobDetails) {
+            this.jobDetails = jobDetails;
+        }
+
+        @Override
+        public void run() {
+            if (!waitingRetries.remove(this)) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (PendingDetails details : jobDetails) {
+                details.enqueuedAt = now;
+            }
+            // the jobs' slots were given back when they were sent, so they take them again even if that runs over
+            if (capacityPermits != null) {
+                capacityPermits.take(jobDetails.size());
+            }
+            pendingJobs.offerAll(jobDetails);
+            boolean fullByWeight = addPendingWeight(jobDetails);
+            int count = pendingCount.addAndGet(jobDetails.size());
+            if (!shutdown) {
+                signalIfNeeded(count - jobDetails.size(), count, fullByWeight || isAnyDueBeforeFlush(jobDetails));
+            }
+        }
     }
 
-    private List<PendingDetails> nextJobs() {
-        List<PendingDetails> returnValue = new java.util.ArrayList<>();
-        synchronized (pendingJobs) {
-            while ((returnValue.size() < batchSize) && !pendingJobs.isEmpty()) {
-                PendingDetails details = pendingJobs.getFirst();
-                pendingJobs.remove(details);
-                returnValue.add(details);
+    /**
+     * The buffers for one batch, which are reused batch after batch.  The thread assembling a batch takes one from
+     * <code>freeBatches</code> along with its in-flight permit, and the batch is given back, cleared, when it
+     * completes.
+     */
+    private final class Batch extends MpscQueue.Node implements BiConsumer<Object, Throwable> {
+        private static final byte UNSETTLED = 0;
+        private static final byte COMPLETED = 1;
+        private static final byte RETRYING = 2;
+
+        private final List<PendingDetails> jobDetails = new ArrayList<>();
+        private final Consumer<PendingDetails> collector = jobDetails::add;
+        /** The result matched to each job, only while the batch is being completed */
+        private JobResult[] outcomes = new JobResult[0];
+        /** Whether each job has been settled, and how */
+        private byte[] states = new byte[0];
+        private long sentAt;
+        private boolean full;
+        /** What the processor threw, if it did not return a stage */
+        private Throwable failure;
+        /** Receives the results of a streaming processor.  Null otherwise */
+        private BatchSink sink;
+
+        /**
+         * Sizes the per-job arrays for the jobs just taken
+         */
+        private void prepare() {
+            if (outcomes.length < jobDetails.size()) {
+                outcomes = new JobResult[jobDetails.size()];
+                states = new byte[jobDetails.size()];
+            }
+        }
+
+        /**
+         * Completes the batch with the processor's results, or with its exception
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public void accept(Object results, Throwable ex) {
+            int streamed = 0;
+            try {
+                if (sink != null) {
+                    streamed = sink.close();
+                }
+                if (ex != null) {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    finishJobs(this, PROCESSOR_FAILED_MESSAGE + cause);
+                } else if (sink != null) {
+                    finishJobs(this, NO_RESULT_MESSAGE);
+                } else {
+                    completeWith((List<JobResult>) results);
+                }
+            } finally {
+                long latency = System.nanoTime() - sentAt;
+                metrics.processLatency.record(latency);
+                // jobs the sink settled have had their own running time recorded already
+                metrics.runningTime.record(latency, jobDetails.size() - streamed);
+                if (tuner != null) {
+                    int previousBatchSize = tuner.getBatchSize();
+                    tuner.onBatchProcessed(jobDetails.size(), full, latency);
+                    if (tuner.getBatchSize() < previousBatchSize) {
+                        // the jobs already pending may fill the smaller batch, which no submit will signal
+                        signalIfFull();
+                    }
+                }
+                clear();
+                freeBatches.offer(this);
+                releaseInFlightPermit();
+            }
+        }
+
+        /**
+         * Completes the batch with the processor's results.  Results that cannot be applied, for example a list that
+         * throws when read, fail the jobs not yet settled as though the processor had thrown, rather than being lost
+         * in the stage and leaving the jobs running forever.
+         */
+        private void completeWith(List<JobResult> results) {
+            try {
+                completeJobs(this, results);
+            } catch (RuntimeException ex) {
+                finishJobs(this, PROCESSOR_FAILED_MESSAGE + ex);
             }
         }
-        return returnValue;
+
+        private void clear() {
+            jobDetails.clear();
+            Arrays.fill(outcomes, null);
+            Arrays.fill(states, UNSETTLED);
+            failure = null;
+            sink = null;
+        }
     }
 
-    private void sendJobs(List<PendingDetails> jobDetails) {
-        jobDetails.stream().map(details -> details.jobResult).forEach(result -> result.setStatus(JobExecutionStatus.RUNNING));
-        List<Job> pendingJobs = jobDetails.stream().map(PendingDetails::getJob).toList();
-        List<JobResult> results = batchProcessor.process(pendingJobs);
-        lastRun = System.currentTimeMillis();
-        for (JobResult result : results) {
-            Optional<JobResult> resultToUpdateOpt = jobDetails.stream()
-                    .filter(details -> details.job.getId().equals(result.getJobId()))
-                    .map(details -> details.jobResult)
-                    .findFirst();
+    /**
+     * The sink a streaming processor gives a batch's results to.  Each result settles its job straight away, under
+     * the sink's lock so that concurrent results, and the end of the batch, see a consistent set of settled jobs.
+     * A new sink is made for each batch, so one closed at the end of its batch shuts out late results even after
+     * the batch's buffers have been reused.
+     */
+    private final class BatchSink implements JobResultSink {
+        private final Batch batch;
+        /** Guarded by this */
+        private boolean closed;
+        /** The position the next result is expected at, for processors that finish jobs in order.  Guarded by this */
+        private int position;
+        /** Guarded by this */
+        private Map<UUID, Integer> index;
+        /** The number of jobs settled through the sink, whose running time it has recorded.  Guarded by this */
+        private int settled;
+
+        private BatchSink(Batch batch) {
+            this.batch = batch;
+        }
 
-            resultToUpdateOpt.ifPresent(resultToUpdate -> {
-                synchronized (resultToUpdate) {
-                    resultToUpdate.copy(result);
-                    resultToUpdate.notify();
+        @Override
+        public void accept(@Nonnull JobResult result) {
+            if (!result.getStatus().isComplete()) {
+                return;
+            }
+            PendingDetails details;
+            boolean retrying;
+            long sentAt;
+            synchronized (this) {
+                int matched = indexOf(result.getJobId());
+                if (closed || matched < 0 || batch.states[matched] != Batch.UNSETTLED) {
+                    return;
+                }
+                details = batch.jobDetails.get(matched);
+                settled++;
+                // read while the sink is open, as a closed batch may be reused
+                sentAt = batch.sentAt;
+                retrying = willRetry(details, result);
+                if (retrying) {
+                    batch.states[matched] = Batch.RETRYING;
+                    details.jobResult.setStatus(JobExecutionStatus.PENDING);
+                } else {
+                    batch.states[matched] = Batch.COMPLETED;
                 }
-            });
+            }
+            // each job's own running time, rather than the whole batch's
+            metrics.runningTime.record(System.nanoTime() - sentAt);
+            if (!retrying) {
+                // outside the lock, as completing the result runs its callbacks
+                complete(details, result);
+            }
+        }
+
+        private int indexOf(UUID jobId) {
+            List<PendingDetails> jobDetails = batch.jobDetails;
+            if (position < jobDetails.size() && jobDetails.get(position).job.getId().equals(jobId)) {
+                return position++;
+            }
+            if (index == null) {
+                index = indexById(jobDetails);
+            }
+            return index.getOrDefault(jobId, -1);
+        }
+
+        /**
+         * @return the number of jobs settled through the sink
+         */
+        private synchronized int close() {
+            closed = true;
+            return settled;
+        }
+    }
+
+    /**
+     * Permits for the free pending slots, which can also be taken without waiting for them, leaving fewer than none
+     */
+    private static final class CapacityPermits extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        private CapacityPermits(int permits) {
+            super(permits);
+        }
+
+        private void take(int permits) {
+            reducePermits(permits);
         }
     }
 
-    private class PendingDetails {
+    private class PendingDetails extends MpscQueue.Node {
         private Job job;
         private JobResult jobResult;
+        private long enqueuedAt = System.nanoTime();
+        private final int priorityClass;
+        private final long weight;
+        /** The number of times the job has been sent to the processor */
+        private int attempts;
 
         private PendingDetails(Job job, JobResult jobResult) {
             this.job = job;
             this.jobResult = jobResult;
+            this.priorityClass = classDelaysInNanos == null
+                    ? 0
+                    : Math.max(0, Math.min(job.getPriorityClass(), classDelaysInNanos.length - 1));
+            this.weight = maxBatchWeight == Long.MAX_VALUE ? 0 : Math.max(0, job.getWeight());
         }
 
         public Job getJob() {
             return job;
         }
     }
+
+    /**
+     * Configures and creates a <code>JobExecutionService</code>
+     */
+    public static final class Builder {
+
+        private final int batchSize;
+        private final BatchProcessor batchProcessor;
+        private final AsyncBatchProcessor asyncBatchProcessor;
+        private final StreamingBatchProcessor streamingBatchProcessor;
+
+        private long maxDelayInMillis = 500;
+        private int maxInFlightBatches = 1;
+        private Executor dispatchExecutor;
+        private boolean virtualThreads;
+        private int capacity = Integer.MAX_VALUE;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        private long overflowTimeoutInMillis;
+        private AdaptiveBatching adaptiveBatching;
+        private MetricsListener metricsListener;
+        private long metricsIntervalInMillis;
+        private String jmxName;
+        private JobJournal journal;
+        private boolean deduplicate;
+        private RetryPolicy retryPolicy;
+        private int maxRecentResults;
+        private long recentResultTtlInMillis;
+        private long[] classDelaysInMillis;
+        private long maxBatchWeight = Long.MAX_VALUE;
+
+        private Builder(int batchSize, BatchProcessor batchProcessor, AsyncBatchProcessor asyncBatchProcessor,
+                        StreamingBatchProcessor streamingBatchProcessor) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be at least 1");
+            }
+            this.batchSize = batchSize;
+            this.batchProcessor = batchProcessor;
+            this.asyncBatchProcessor = asyncBatchProcessor;
+            this.streamingBatchProcessor = streamingBatchProcessor;
+        }
+
+        /**
+         * @param maxDelayInMillis the longest time in milliseconds a job will stay pending waiting for its batch to
+         *                         fill.  Defaults to 500
+         * @return this builder
+         */
+        public Builder maxDelayInMillis(long maxDelayInMillis) {
+            this.maxDelayInMillis = maxDelayInMillis;
+            return this;
+        }
+
+        /**
+         * Sets how many calls to <code>BatchProcessor.process</code> may be outstanding at the same time.  Batches are
+         * still assembled one at a time, but with a value above 1 they are handed to a dispatch executor so the next
+         * batch can be assembled and sent while earlier ones are being processed.  Defaults to 1.
+         *
+         * @param maxInFlightBatches the maximum number of concurrent <code>process</code> calls
+         * @return this builder
+         */
+        public Builder maxInFlightBatches(int maxInFlightBatches) {
+            if (maxInFlightBatches < 1) {
+                throw new IllegalArgumentException("maxInFlightBatches must be at least 1");
+            }
+            this.maxInFlightBatches = maxInFlightBatches;
+            return this;
+        }
+
+        /**
+         * Runs <code>BatchProcessor.process</code> calls on the given executor.  The service does not shut down an
+         * executor supplied here.  When not set, the service creates a fixed pool of
+         * <code>maxInFlightBatches</code> threads if more than one batch may be in flight.  Not used with an
+         * <code>AsyncBatchProcessor</code> or a <code>StreamingBatchProcessor</code>.
+         *
+         * @param dispatchExecutor the executor to run batches on
+         * @return this builder
+         */
+        public Builder dispatchExecutor(@Nonnull Executor dispatchExecutor) {
+            this.dispatchExecutor = dispatchExecutor;
+            return this;
+        }
+
+        /**
+         * Runs each <code>BatchProcessor.process</code> call on its own virtual thread, which suits processors that
+         * spend most of their time blocked on I/O.  Ignored if a dispatch executor is supplied, or with an
+         * <code>AsyncBatchProcessor</code> or a <code>StreamingBatchProcessor</code>.
+         *
+         * @return this builder
+         */
+        public Builder useVirtualThreads() {
+            this.virtualThreads = true;
+            return this;
+        }
+
+        /**
+         * Bounds the number of Jobs that may be pending at once.  What happens to a Job submitted when the service
+         * is full is decided by the overflow policy.  Defaults to unbounded.
+         *
+         * @param capacity the maximum number of pending Jobs
+         * @return this builder
+         */
+        public Builder capacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be at least 1");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param overflowPolicy what to do with a Job submitted when the service is at capacity.  Defaults to BLOCK
+         * @return this builder
+         */
+        public Builder overflowPolicy(@Nonnull OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * @param overflowTimeoutInMillis how long a submitting thread waits for room under the BLOCK_WITH_TIMEOUT
+         *                                policy.  Defaults to 0
+         * @return this builder
+         */
+        public Builder overflowTimeoutInMillis(long overflowTimeoutInMillis) {
+            this.overflowTimeoutInMillis = overflowTimeoutInMillis;
+            return this;
+        }
+
+        /**
+         * Lets the service tune its batch size and maximum delay at runtime.  The batchSize and maxDelayInMillis
+         * given to this builder become the starting values, brought within the adaptive bounds.
+         *
+         * @param adaptiveBatching the bounds and goal of the tuning
+         * @return this builder
+         */
+        public Builder adaptiveBatching(@Nonnull AdaptiveBatching adaptiveBatching) {
+            this.adaptiveBatching = adaptiveBatching;
+            return this;
+        }
+
+        /**
+         * Reports the service's metrics to a listener at a fixed interval, and once more at shutdown.  An exception
+         * thrown by the listener stops any further interval reports.
+         *
+         * @param metricsListener receives the metrics on the service's scheduler thread
+         * @param intervalInMillis the time in milliseconds between reports
+         * @return this builder
+         */
+        public Builder metricsListener(@Nonnull MetricsListener metricsListener, long intervalInMillis) {
+            if (intervalInMillis < 1) {
+                throw new IllegalArgumentException("intervalInMillis must be at least 1");
+            }
+            this.metricsListener = metricsListener;
+            this.metricsIntervalInMillis = intervalInMillis;
+            return this;
+        }
+
+        /**
+         * Registers a <code>JobExecutionServiceMXBean</code> for the service with the platform MBean server, under
+         * <code>org.csea.job:type=JobExecutionService,name="jmxName"</code>.  It is unregistered at shutdown.  Each
+         * lane of a <code>ShardedJobExecutionService</code> adds its index, as <code>lane=0</code> and so on.
+         *
+         * @param jmxName the name to register the service under, unique among running services
+         * @return this builder
+         */
+        public Builder jmxName(@Nonnull String jmxName) {
+            this.jmxName = jmxName;
+            return this;
+        }
+
+        /**
+         * Makes the service durable.  Each Job is recorded in the journal before it is queued, the journal is
+         * committed to disk before each batch is sent, and Jobs are recorded as completed once their batch has been
+         * processed.  Any Jobs the journal holds that were not completed are queued again when the service is
+         * built; their results are available from <code>getRecoveredResults</code>.  A journal belongs to a single
+         * service, so a <code>ShardedJobExecutionService</code> refuses a builder with one.  The service does not
+         * close the journal.
+         *
+         * @param journal the journal to record Jobs in
+         * @return this builder
+         */
+        public Builder journal(@Nonnull JobJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * Coalesces submissions of the same Job id.  A Job submitted while another with the same id is pending or
+         * running is not queued again, and shares the first one's <code>JobResult</code>, pending slot and outcome.
+         * The results of up to <code>maxRecentResults</code> completed Jobs are kept for
+         * <code>recentResultTtlInMillis</code>, and a Job resubmitted meanwhile is given its completed result
+         * straight away rather than being processed again.  Also enables <code>getResult</code>.
+         *
+         * @param maxRecentResults the most completed results to keep, or 0 to keep none
+         * @param recentResultTtlInMillis how long in milliseconds to keep a completed result
+         * @return this builder
+         */
+        public Builder deduplicate(int maxRecentResults, long recentResultTtlInMillis) {
+            if (maxRecentResults < 0 || recentResultTtlInMillis < 0) {
+                throw new IllegalArgumentException("maxRecentResults and recentResultTtlInMillis must not be negative");
+            }
+            this.deduplicate = true;
+            this.maxRecentResults = maxRecentResults;
+            this.recentResultTtlInMillis = recentResultTtlInMillis;
+            return this;
+        }
+
+        /**
+         * Retries failed Jobs according to the policy, instead of completing them with the failure.  Without a
+         * policy a failed Job is completed with the failure straight away.
+         *
+         * @param retryPolicy how many times, how soon and which failures to retry
+         * @return this builder
+         */
+        public Builder retryPolicy(@Nonnull RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Limits the total weight of a batch, as given by <code>Job.getWeight</code>, as well as its number of Jobs.
+         * A batch closes at batchSize Jobs or before the Job that would take it over this weight, whichever comes
+         * first, and pending Jobs reaching this weight are sent without waiting for the maximum delay.  A single Job
+         * heavier than the maximum is sent in a batch of its own.  Defaults to unlimited.
+         *
+         * @param maxBatchWeight the most total weight of Jobs to send to the processor at once
+         * @return this builder
+         */
+        public Builder maxBatchWeight(long maxBatchWeight) {
+            if (maxBatchWeight < 1) {
+                throw new IllegalArgumentException("maxBatchWeight must be at least 1");
+            }
+            this.maxBatchWeight = maxBatchWeight;
+            return this;
+        }
+
+        /**
+         * Batches Jobs by priority class, as given by <code>Job.getPriorityClass</code>, with a maximum delay for
+         * each class in place of <code>maxDelayInMillis</code>.  A Job's deadline is the time it was queued plus its
+         * class's delay.  Batches are filled earliest deadline first, so urgent Jobs go ahead of older but less
+         * urgent ones, and a partial batch is flushed as soon as any pending Job reaches its deadline.  With adaptive
+         * batching only the batch size is tuned.
+         *
+         * @param maxDelaysInMillis the maximum delay in milliseconds of each class, from class 0 upwards
+         * @return this builder
+         */
+        public Builder priorityClasses(long... maxDelaysInMillis) {
+            if (maxDelaysInMillis.length < 1) {
+                throw new IllegalArgumentException("at least one priority class is needed");
+            }
+            for (long maxDelay : maxDelaysInMillis) {
+                if (maxDelay < 0) {
+                    throw new IllegalArgumentException("maxDelaysInMillis must not be negative");
+                }
+            }
+            this.classDelaysInMillis = maxDelaysInMillis.clone();
+            return this;
+        }
+
+        /**
+         * @return a new, running <code>JobExecutionService</code>
+         */
+        public JobExecutionService build() {
+            return build(-1);
+        }
+
+        /**
+         * @param lane the lane of a <code>ShardedJobExecutionService</code> to build, or -1 for a service on its own
+         * @return a new, running <code>JobExecutionService</code>
+         * @throws IllegalArgumentException if this builder has a journal and the service is a lane, as every lane
+         * would replay and append to the same journal
+         */
+        JobExecutionService build(int lane) {
+            if (lane >= 0 && journal != null) {
+                throw new IllegalArgumentException("A journal belongs to a single service, so cannot be shared "
+                        + "between the lanes of a ShardedJobExecutionService");
+            }
+            JobExecutionService service = new JobExecutionService(this);
+            try {
+                return service.start(this, lane);
+            } catch (RuntimeException ex) {
+                // stops the scheduler thread and unregisters the MXBean if it got that far
+                service.shutdown();
+                throw ex;
+            }
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package org.csea.job;
+
+import org.csea.job.metrics.JobExecutionServiceMXBean;
+import org.csea.job.metrics.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the metrics of a <code>JobExecutionService</code> through <code>JobExecutionServiceMXBean</code>
+ */
+final class JobExecutionServiceMXBeanAdapter implements JobExecutionServiceMXBean {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final JobExecutionService service;
+
+    /** Read directly rather than through snapshots, so an attribute read does not copy every histogram */
+    private final JobMetrics metrics;
+
+    JobExecutionServiceMXBeanAdapter(JobExecutionService service, JobMetrics metrics) {
+        this.service = service;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return service.getQueueDepth();
+    }
+
+    @Override
+    public int getInFlightBatches() {
+        return service.getInFlightBatchCount();
+    }
+
+    @Override
+    public int getBatchSize() {
+        return service.getBatchSize();
+    }
+
+    @Override
+    public long getMaxDelayInMillis() {
+        return service.getMaxDelayInMillis();
+    }
+
+    @Override
+    public long getSubmittedJobs() {
+        return metrics.submittedJobs.sum();
+    }
+
+    @Override
+    public long getSucceededJobs() {
+        return metrics.succeededJobs.sum();
+    }
+
+    @Override
+    public long getFailedJobs() {
+        return metrics.failedJobs.sum();
+    }
+
+    @Override
+    public long getRejectedJobs() {
+        return metrics.rejectedJobs.sum();
+    }
+
+    @Override
+    public long getDroppedJobs() {
+        return metrics.droppedJobs.sum();
+    }
+
+    @Override
+    public long getRetriedJobs() {
+        return metrics.retriedJobs.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return metrics.batches.sum();
+    }
+
+    @Override
+    public double getBatchFillRatio() {
+        long slots = metrics.batchSlots.sum();
+        return slots == 0 ? 0 : (double) metrics.batchedJobs.sum() / slots;
+    }
+
+    @Override
+    public double getPendingTimeP50() {
+        return millis(metrics.pendingTime, 50);
+    }
+
+    @Override
+    public double getPendingTimeP99() {
+        return millis(metrics.pendingTime, 99);
+    }
+
+    @Override
+    public double getRunningTimeP50() {
+        return millis(metrics.runningTime, 50);
+    }
+
+    @Override
+    public double getRunningTimeP99() {
+        return millis(metrics.runningTime, 99);
+    }
+
+    @Override
+    public double getProcessLatencyP50() {
+        return millis(metrics.processLatency, 50);
+    }
+
+    @Override
+    public double getProcessLatencyP99() {
+        return millis(metrics.processLatency, 99);
+    }
+
+    @Override
+    public double getProcessLatencyMax() {
+        return metrics.processLatency.getMax() / NANOS_PER_MILLI;
+    }
+
+    private static double millis(LatencyHistogram histogram, double percentile) {
+        return histogram.getPercentile(percentile) / NANOS_PER_MILLI;
+    }
+}
@@ -17,7 +17,10 @@ public enum JobExecutionStatus {
         this.complete = complete;
     }
 
-    boolean isComplete() {
+    /**
+     * @return true if a Job with this status has finished running
+     */
+    public boolean isComplete() {
         return complete;
     }
 }
@@ -0,0 +1,274 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects a <code>JobExecutionService</code> to reactive pipelines.  Jobs published upstream are submitted to the
+ * service, and each <code>JobResult</code> is published downstream once its Job has finished, in the order they
+ * finish.
+ *
+ * Flow control runs end to end.  At most <code>maxOutstandingJobs</code> Jobs are requested from upstream that have
+ * not yet had their results taken downstream, so a slow subscriber slows the publisher rather than filling a
+ * buffer, and the service never holds more of this processor's Jobs than that.  Sizing the window at or below the
+ * service's capacity means submitting never blocks the upstream publisher.
+ *
+ * Jobs finish on the service's threads, which must not be held up by the subscriber or blocked submitting the
+ * next Jobs, so the results of finished Jobs are published, and more Jobs requested from upstream, on a separate
+ * executor.  A synchronous publisher therefore submits from that executor, where waiting for capacity under the
+ * BLOCK policy holds up only the pipeline.
+ *
+ * The processor has a single subscriber.  When upstream completes or fails, the results of the Jobs already
+ * submitted are published first, then the completion or the error.  A subscriber cancelling cancels upstream too,
+ * though Jobs already submitted still run.
+ */
+public class JobFlowProcessor implements Flow.Processor<Job, JobResult> {
+
+    private final JobExecutionService service;
+
+    private final int maxOutstandingJobs;
+
+    /** Publishes the results of Jobs as they finish */
+    private final Executor executor;
+
+    private final Runnable drainTask = this::drainLoop;
+
+    /** Jobs received from upstream whose results have not yet been published downstream */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /** Results of finished Jobs, waiting for downstream demand */
+    private final Queue<JobResult> ready = new ConcurrentLinkedQueue<>();
+
+    /** Results requested by the subscriber and not yet published.  <code>Long.MAX_VALUE</code> means unbounded */
+    private final AtomicLong demand = new AtomicLong();
+
+    /** Makes sure only one thread at a time publishes downstream, and that no signal to publish is missed */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile Flow.Subscription upstream;
+
+    private volatile Flow.Subscriber<? super JobResult> downstream;
+
+    private volatile boolean upstreamDone;
+
+    private volatile Throwable upstreamError;
+
+    /** Set when the subscriber cancels */
+    private volatile boolean cancelled;
+
+    /** Set when the subscriber makes an invalid request, which ends the subscription with this error */
+    private volatile Throwable requestError;
+
+    /** Set when the service rejects a Job, after which no more are taken from upstream */
+    private volatile boolean rejected;
+
+    /** Only accessed while publishing, so calls on the upstream subscription are serial */
+    private boolean upstreamCancelled;
+
+    /** Set once the subscriber has been sent onComplete or onError, or has cancelled.  Only accessed while publishing */
+    private boolean terminated;
+
+    /**
+     * Creates a processor that publishes results on the common <code>ForkJoinPool</code>
+     *
+     * @param service the service to submit Jobs to
+     * @param maxOutstandingJobs the most Jobs that may have been requested from upstream without their results
+     *                           having been published downstream
+     */
+    public JobFlowProcessor(@Nonnull JobExecutionService service, int maxOutstandingJobs) {
+        this(service, maxOutstandingJobs, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param service the service to submit Jobs to
+     * @param maxOutstandingJobs the most Jobs that may have been requested from upstream without their results
+     *                           having been published downstream
+     * @param executor publishes the results of Jobs as they finish and requests more Jobs from upstream.  It must
+     *                 not run tasks on the service's own threads
+     */
+    public JobFlowProcessor(@Nonnull JobExecutionService service, int maxOutstandingJobs, @Nonnull Executor executor) {
+        if (maxOutstandingJobs < 1) {
+            throw new IllegalArgumentException("maxOutstandingJobs must be at least 1");
+        }
+        this.service = service;
+        this.maxOutstandingJobs = maxOutstandingJobs;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super JobResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        synchronized (this) {
+            if (downstream == null) {
+                downstream = subscriber;
+                subscriber.onSubscribe(new ResultSubscription());
+                drain();
+                return;
+            }
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(new IllegalStateException("A JobFlowProcessor supports a single subscriber"));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(maxOutstandingJobs);
+    }
+
+    @Override
+    public void onNext(Job job) {
+        Objects.requireNonNull(job);
+        if (upstreamDone) {
+            // sent before upstream saw the cancellation
+            return;
+        }
+        outstanding.incrementAndGet();
+        JobResult result;
+        try {
+            result = service.submit(job);
+        } catch (RejectedExecutionException ex) {
+            // the service has shut down or is rejecting work, so upstream is cancelled and the subscriber told why
+            outstanding.decrementAndGet();
+            rejected = true;
+            onError(ex);
+            return;
+        }
+        result.onComplete(this::onResult);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable);
+        if (!upstreamDone) {
+            upstreamError = throwable;
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Called on whichever service thread finished the Job, so hands the publishing to the executor
+     */
+    private void onResult(JobResult result) {
+        ready.offer(result);
+        if (wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException ex) {
+                // with the executor gone there is nowhere else to publish from
+                drainLoop();
+            }
+        }
+    }
+
+    /**
+     * Publishes as many ready results as the subscriber has asked for, requesting as many more Jobs from upstream,
+     * then completes the subscriber once upstream is done and every result has been published.  Any thread may call
+     * this; whichever gets in first publishes on behalf of the others.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() == 0) {
+            drainLoop();
+        }
+    }
+
+    /**
+     * Publishes until no more signals to publish have arrived, by the one thread that got in first
+     */
+    private void drainLoop() {
+        int missed = 1;
+        do {
+            Flow.Subscription subscription = upstream;
+            if ((cancelled || rejected || requestError != null) && subscription != null && !upstreamCancelled) {
+                upstreamCancelled = true;
+                subscription.cancel();
+            }
+            Flow.Subscriber<? super JobResult> subscriber = downstream;
+            if (subscriber == null || terminated) {
+                missed = wip.addAndGet(-missed);
+                continue;
+            }
+            if (cancelled) {
+                terminated = true;
+                ready.clear();
+            } else if (requestError != null) {
+                terminated = true;
+                subscriber.onError(requestError);
+            } else {
+                long requested = demand.get();
+                long published = 0;
+                JobResult result;
+                while (published != requested && (result = ready.poll()) != null) {
+                    subscriber.onNext(result);
+                    published++;
+                }
+                if (published > 0) {
+                    if (requested != Long.MAX_VALUE) {
+                        demand.addAndGet(-published);
+                    }
+                    outstanding.addAndGet((int) -published);
+                    if (!upstreamDone && !upstreamCancelled) {
+                        subscription.request(published);
+                    }
+                }
+                if (upstreamDone && outstanding.get() == 0 && ready.isEmpty()) {
+                    terminated = true;
+                    Throwable error = upstreamError;
+                    if (error == null) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(error);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private class ResultSubscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("request must be positive, was " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.csea.job;
+
+import org.csea.job.metrics.LatencyHistogram;
+import org.csea.job.metrics.MetricsSnapshot;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and histograms a <code>JobExecutionService</code> records into.  Counters are
+ * <code>LongAdder</code>s, so producers on the submit path never contend on a single memory location; histograms
+ * are only recorded into from the scheduler thread and batch completions.
+ */
+final class JobMetrics {
+
+    final LongAdder submittedJobs = new LongAdder();
+    final LongAdder succeededJobs = new LongAdder();
+    final LongAdder failedJobs = new LongAdder();
+    final LongAdder rejectedJobs = new LongAdder();
+    final LongAdder droppedJobs = new LongAdder();
+    final LongAdder retriedJobs = new LongAdder();
+    final LongAdder batches = new LongAdder();
+    final LongAdder batchedJobs = new LongAdder();
+    final LongAdder batchSlots = new LongAdder();
+
+    final LatencyHistogram pendingTime = new LatencyHistogram();
+    final LatencyHistogram runningTime = new LatencyHistogram();
+    final LatencyHistogram processLatency = new LatencyHistogram();
+
+    void recordBatch(int jobs, int batchSize) {
+        batches.increment();
+        batchedJobs.add(jobs);
+        batchSlots.add(Math.max(jobs, batchSize));
+    }
+
+    void recordCompletion(JobExecutionStatus status) {
+        if (status == JobExecutionStatus.SUCCESS) {
+            succeededJobs.increment();
+        } else {
+            failedJobs.increment();
+        }
+    }
+
+    MetricsSnapshot snapshot(int queueDepth, int inFlightBatches) {
+        return new MetricsSnapshot(System.currentTimeMillis(), submittedJobs.sum(), succeededJobs.sum(),
+                failedJobs.sum(), rejectedJobs.sum(), droppedJobs.sum(), retriedJobs.sum(), batches.sum(), batchedJobs.sum(),
+                batchSlots.sum(), queueDepth, inFlightBatches, pendingTime.copy(), runningTime.copy(),
+                processLatency.copy());
+    }
+}
@@ -3,6 +3,9 @@ package org.csea.job;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Contains the result of a Job.
@@ -11,9 +14,12 @@ public class JobResult {
 
     private final UUID jobId;
 
-    private JobExecutionStatus status;
+    private volatile JobExecutionStatus status;
 
-    private String failedMessage;
+    private volatile String failedMessage;
+
+    /** Created on first use, so results nobody listens to never allocate one.  Guarded by this */
+    private CompletableFuture<JobResult> completion;
 
     /**
      * Creates a new JobResult instance.
@@ -76,6 +82,7 @@ public class JobResult {
      */
     public void setStatus(JobExecutionStatus status) {
         this.status = status;
+        signalIfComplete();
     }
 
     /**
@@ -90,26 +97,82 @@ public class JobResult {
 
     /**
      * Wait for the Job to finish running.  This method will block until the Job finishes or until the
-     * timeout duration is met.
+     * timeout duration is met.  It returns immediately if the Job has already finished.
      *
      * @param timeoutMillis the maximum duration in milliseconds to wait for the Job to complete
+     * @return true if the Job has finished, false if the timeout elapsed first
      * @throws InterruptedException if the Thread was interrupted while waiting
      */
-    public void await(long timeoutMillis) throws InterruptedException {
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        if (status.isComplete()) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
         synchronized (this) {
-            this.wait(timeoutMillis);
+            while (!status.isComplete()) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                this.wait(remainingMillis);
+            }
         }
+        return true;
+    }
+
+    /**
+     * A <code>CompletableFuture</code> that completes with this result once the Job has finished.  Callers can
+     * chain further work on it instead of blocking a thread in {@link #await(long)}.
+     *
+     * @return a new <code>CompletableFuture</code> each call.  Completing it has no effect on this result
+     */
+    @Nonnull
+    public CompletableFuture<JobResult> toCompletableFuture() {
+        return completion().copy();
+    }
+
+    /**
+     * Registers a callback to run once the Job has finished.  If the Job has already finished the callback runs
+     * immediately on the calling thread, otherwise it runs on the thread that completes the Job.
+     *
+     * @param callback receives this result
+     */
+    public void onComplete(@Nonnull Consumer<? super JobResult> callback) {
+        completion().thenAccept(callback);
     }
 
     /**
      * Takes the value from the provided <Code>JobResult</Code> and applies them to this instance.  All values
-     * except the jobId will be copied
+     * except the jobId will be copied.  If the copied status is complete, threads in {@link #await(long)} are woken
+     * and completion callbacks are run.
      * @param sourceResult the JobResult whose values will be copied
      */
     public void copy(JobResult sourceResult) {
-        this.status = sourceResult.status;
         this.failedMessage = sourceResult.failedMessage;
-        notify();
+        this.status = sourceResult.status;
+        signalIfComplete();
+    }
+
+    private synchronized CompletableFuture<JobResult> completion() {
+        if (completion == null) {
+            completion = status.isComplete() ? CompletableFuture.completedFuture(this) : new CompletableFuture<>();
+        }
+        return completion;
+    }
+
+    private void signalIfComplete() {
+        if (!status.isComplete()) {
+            return;
+        }
+        CompletableFuture<JobResult> future;
+        synchronized (this) {
+            notifyAll();
+            future = completion;
+        }
+        if (future != null) {
+            // run callbacks outside the monitor
+            future.complete(this);
+        }
     }
 
 }
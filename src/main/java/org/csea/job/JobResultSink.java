@@ -0,0 +1,19 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the results of a batch from a <code>StreamingBatchProcessor</code> one at a time, as each Job finishes
+ */
+public interface JobResultSink {
+
+    /**
+     * Completes the <code>JobResult</code> of the Job with the same id straight away.  May be called from any
+     * thread, and from several threads at once.  A result for a Job that is not in the batch or already has a
+     * result, a result whose status is not complete, or a result given after the batch has finished, is ignored.
+     *
+     * @param result the result of one Job of the batch
+     */
+    void accept(@Nonnull JobResult result);
+
+}
@@ -0,0 +1,26 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Converts <code>Job</code>s to and from bytes, for when they need to leave the JVM
+ */
+public interface JobSerializer {
+
+    /**
+     * @param job the job to convert
+     * @return the bytes representing the Job
+     */
+    @Nonnull
+    byte[] serialize(@Nonnull Job job);
+
+    /**
+     * Rebuilds a Job from bytes produced by {@link #serialize(Job)}.  The rebuilt Job must have the same id.
+     *
+     * @param bytes the bytes representing the Job
+     * @return the Job
+     */
+    @Nonnull
+    Job deserialize(@Nonnull byte[] bytes);
+
+}
@@ -0,0 +1,163 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * An unbounded, lock-free, multi-producer / single-consumer queue.
+ *
+ * Any number of threads may call {@link #offer(Node)} concurrently.  The remaining methods must only ever be
+ * called from one consumer thread at a time.  Producers are linked in with a single atomic swap of the tail, so a
+ * submitting thread never blocks or retries no matter how many other threads are submitting.
+ *
+ * The queue is intrusive: elements are themselves the links, so queueing an element allocates nothing.  An element
+ * may be in only one queue at a time, and may be offered again once it has been polled.
+ *
+ * @param <E> the type of element held in the queue
+ */
+final class MpscQueue<E extends MpscQueue.Node> {
+
+    /**
+     * The link every element carries
+     */
+    static class Node {
+        private volatile Node next;
+    }
+
+    /** Sits in the queue in place of an element whenever the consumer has taken the last one */
+    private final Node stub = new Node();
+
+    private final AtomicReference<Node> tail = new AtomicReference<>(stub);
+
+    /** Owned by the consumer.  Either the stub or the next element to be taken */
+    private Node head = stub;
+
+    /**
+     * Adds an element to the end of the queue.  Safe to call from any thread.
+     *
+     * @param element the element to add
+     */
+    void offer(@Nonnull E element) {
+        Node node = element;
+        node.next = null;
+        link(node, node);
+    }
+
+    /**
+     * Adds all the given elements to the end of the queue, in order, with a single atomic publish.  The elements
+     * of one call are never interleaved with those of concurrent producers.  Safe to call from any thread.
+     *
+     * @param elements the elements to add
+     */
+    void offerAll(@Nonnull Iterable<? extends E> elements) {
+        Node first = null;
+        Node last = null;
+        for (E element : elements) {
+            if (first == null) {
+                first = element;
+            } else {
+                last.next = element;
+            }
+            last = element;
+        }
+        if (first == null) {
+            return;
+        }
+        last.next = null;
+        link(first, last);
+    }
+
+    private void link(Node first, Node last) {
+        Node previous = tail.getAndSet(last);
+        previous.next = first;
+    }
+
+    /**
+     * Removes the element at the head of the queue.  Consumer thread only.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    E poll() {
+        Node first = head;
+        Node next = nextOf(first);
+        if (first == stub) {
+            if (next == null) {
+                return null;
+            }
+            first = next;
+            next = nextOf(next);
+        }
+        if (next == null) {
+            // the last element, which cannot leave until something follows it, so put the stub back in behind it
+            stub.next = null;
+            link(stub, stub);
+            next = nextOf(first);
+        }
+        head = next;
+        return (E) first;
+    }
+
+    /**
+     * Returns the element at the head of the queue without removing it.  Consumer thread only.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    E peek() {
+        Node first = head;
+        if (first == stub) {
+            head = first = nextOf(stub);
+            if (first == null) {
+                head = stub;
+            }
+        }
+        return (E) first;
+    }
+
+    /**
+     * Removes up to <code>limit</code> elements from the head of the queue, handing each one to the consumer in
+     * FIFO order.  Consumer thread only.
+     *
+     * @param consumer receives each removed element
+     * @param limit the maximum number of elements to remove
+     * @return the number of elements removed
+     */
+    int drain(@Nonnull Consumer<? super E> consumer, int limit) {
+        int count = 0;
+        while (count < limit) {
+            E value = poll();
+            if (value == null) {
+                break;
+            }
+            consumer.accept(value);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Consumer thread only.
+     *
+     * @return true if there are no elements in the queue
+     */
+    boolean isEmpty() {
+        return head == stub && tail.get() == stub;
+    }
+
+    private Node nextOf(Node node) {
+        Node next = node.next;
+        if (next == null && node != tail.get()) {
+            // A producer has swapped the tail but not yet linked its node in.  That window is only a couple of
+            // instructions wide, so wait for it rather than reporting the queue as empty.
+            while ((next = node.next) == null) {
+                Thread.onSpinWait();
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,37 @@
+package org.csea.job;
+
+/**
+ * What a <code>JobExecutionService</code> with a bounded capacity does with a submitted Job when it already has
+ * as many pending Jobs as its capacity allows
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The submitting thread waits until there is room
+     */
+    BLOCK,
+
+    /**
+     * The submitting thread waits up to the configured overflow timeout for room.  If none becomes free the Job is
+     * not queued and its <code>JobResult</code> is returned with a FAIL status
+     */
+    BLOCK_WITH_TIMEOUT,
+
+    /**
+     * The Job is not queued and its <code>JobResult</code> is returned straight away with a FAIL status
+     */
+    FAIL,
+
+    /**
+     * The Job is not queued and a <code>RejectedExecutionException</code> is thrown
+     */
+    REJECT,
+
+    /**
+     * The Job is queued and the oldest pending Job is failed to make room for it.  With priority classes, the oldest
+     * Job of the lowest priority class that has any is failed.  Older Jobs are dropped by the service's scheduler
+     * thread, so the pending count can briefly run over capacity by the number of Jobs being
+     * submitted concurrently
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,193 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * The pending Jobs of a <code>JobExecutionService</code>, in one FIFO <code>MpscQueue</code> per priority class.
+ *
+ * Every element has a deadline, and within a class deadlines are in queue order, so the element with the earliest
+ * deadline overall is always at the head of one of the queues.  Taking from the head whose deadline is earliest
+ * fills batches earliest-deadline-first, at a cost per element of one look at each class's head.  With a single
+ * class this is plain FIFO.
+ *
+ * As with <code>MpscQueue</code>, any thread may offer, and the remaining methods must only ever be called from one
+ * consumer thread at a time.
+ *
+ * @param <E> the type of element held in the queue
+ */
+final class PendingQueue<E extends MpscQueue.Node> {
+
+    private final MpscQueue<E>[] queues;
+
+    private final ToIntFunction<? super E> classOf;
+
+    private final ToLongFunction<? super E> deadlineOf;
+
+    /**
+     * @param classCount the number of priority classes, with class 0 the highest priority
+     * @param classOf gives the priority class of an element, from 0 to classCount - 1
+     * @param deadlineOf gives the deadline of an element, in <code>System.nanoTime()</code> terms
+     */
+    @SuppressWarnings("unchecked")
+    PendingQueue(int classCount, ToIntFunction<? super E> classOf, ToLongFunction<? super E> deadlineOf) {
+        this.queues = (MpscQueue<E>[]) new MpscQueue<?>[classCount];
+        for (int i = 0; i < classCount; i++) {
+            queues[i] = new MpscQueue<>();
+        }
+        this.classOf = classOf;
+        this.deadlineOf = deadlineOf;
+    }
+
+    /**
+     * Adds an element to the end of its class's queue.  Safe to call from any thread.
+     *
+     * @param element the element to add
+     */
+    void offer(@Nonnull E element) {
+        queues[classOf.applyAsInt(element)].offer(element);
+    }
+
+    /**
+     * Adds all the given elements to the ends of their classes' queues, with a single atomic publish per class.
+     * Safe to call from any thread.
+     *
+     * @param elements the elements to add
+     */
+    void offerAll(@Nonnull List<? extends E> elements) {
+        if (queues.length == 1) {
+            queues[0].offerAll(elements);
+            return;
+        }
+        List<List<E>> byClass = new ArrayList<>(queues.length);
+        for (int i = 0; i < queues.length; i++) {
+            byClass.add(new ArrayList<>());
+        }
+        for (E element : elements) {
+            byClass.get(classOf.applyAsInt(element)).add(element);
+        }
+        for (int i = 0; i < queues.length; i++) {
+            queues[i].offerAll(byClass.get(i));
+        }
+    }
+
+    /**
+     * Returns the element with the earliest deadline without removing it.  Consumer thread only.
+     *
+     * @return the element, or null if every queue is empty
+     */
+    @Nullable
+    E peek() {
+        int index = earliest();
+        return index < 0 ? null : queues[index].peek();
+    }
+
+    /**
+     * Removes the element with the earliest deadline.  Consumer thread only.
+     *
+     * @return the element, or null if every queue is empty
+     */
+    @Nullable
+    E poll() {
+        int index = earliest();
+        return index < 0 ? null : queues[index].poll();
+    }
+
+    /**
+     * Removes the element with the earliest deadline if it passes the test.  The element tested is the one removed,
+     * even if an element with an earlier deadline is offered meanwhile.  Consumer thread only.
+     *
+     * @param test decides whether to remove the element
+     * @return the element, or null if every queue is empty or the element failed the test
+     */
+    @Nullable
+    E pollIf(@Nonnull Predicate<? super E> test) {
+        int index = earliest();
+        if (index < 0) {
+            return null;
+        }
+        E head = queues[index].peek();
+        // only this thread removes elements, so the head is still there to be polled
+        return head != null && test.test(head) ? queues[index].poll() : null;
+    }
+
+    /**
+     * Removes the oldest element of the lowest priority class that has any.  Consumer thread only.
+     *
+     * @return the element, or null if every queue is empty
+     */
+    @Nullable
+    E pollLowestPriority() {
+        for (int i = queues.length - 1; i >= 0; i--) {
+            E element = queues[i].poll();
+            if (element != null) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes up to <code>limit</code> elements, earliest deadline first, handing each one to the consumer.
+     * Consumer thread only.
+     *
+     * @param consumer receives each removed element
+     * @param limit the maximum number of elements to remove
+     * @return the number of elements removed
+     */
+    int drain(@Nonnull Consumer<? super E> consumer, int limit) {
+        if (queues.length == 1) {
+            return queues[0].drain(consumer, limit);
+        }
+        int count = 0;
+        E element;
+        while (count < limit && (element = poll()) != null) {
+            consumer.accept(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Consumer thread only.
+     *
+     * @return true if there are no elements in any queue
+     */
+    boolean isEmpty() {
+        for (MpscQueue<E> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the queue whose head has the earliest deadline, or -1 if they are all empty
+     */
+    private int earliest() {
+        if (queues.length == 1) {
+            return queues[0].isEmpty() ? -1 : 0;
+        }
+        int index = -1;
+        long earliestDeadline = 0;
+        for (int i = 0; i < queues.length; i++) {
+            E head = queues[i].peek();
+            if (head != null) {
+                long deadline = deadlineOf.applyAsLong(head);
+                // ties go to the higher priority class
+                if (index < 0 || deadline - earliestDeadline < 0) {
+                    index = i;
+                    earliestDeadline = deadline;
+                }
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,70 @@
+package org.csea.job;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the most recently completed <code>JobResult</code>s by Job id, up to a maximum number and for a maximum
+ * time.  Lookups take no lock.  Results are added a batch at a time, and each addition evicts whatever has expired
+ * or no longer fits, oldest first.
+ */
+final class RecentResultCache {
+
+    private final int maxSize;
+
+    private final long ttlInNanos;
+
+    private final ConcurrentHashMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Entries in the order they were added, which is also the order they expire in.  Guarded by itself */
+    private final ArrayDeque<Entry> order = new ArrayDeque<>();
+
+    RecentResultCache(int maxSize, long ttlInMillis) {
+        this.maxSize = maxSize;
+        this.ttlInNanos = TimeUnit.MILLISECONDS.toNanos(ttlInMillis);
+    }
+
+    /**
+     * @param jobId the id of a Job
+     * @return the cached result for the Job, or null if there is none or it has expired
+     */
+    @Nullable
+    JobResult get(UUID jobId) {
+        Entry entry = entries.get(jobId);
+        return entry == null || entry.expiresAt - System.nanoTime() <= 0 ? null : entry.result;
+    }
+
+    /**
+     * Adds completed results, evicting any that have expired or exceed the maximum size
+     *
+     * @param results the results to add
+     */
+    void putAll(List<JobResult> results) {
+        long expiresAt = System.nanoTime() + ttlInNanos;
+        synchronized (order) {
+            for (JobResult result : results) {
+                Entry entry = new Entry(result, expiresAt);
+                entries.put(result.getJobId(), entry);
+                order.addLast(entry);
+            }
+            long now = System.nanoTime();
+            Entry oldest;
+            while ((oldest = order.peekFirst()) != null && (order.size() > maxSize || oldest.expiresAt - now <= 0)) {
+                order.removeFirst();
+                // a later entry for the same id replaces this one in the map, and must stay
+                entries.remove(oldest.result.getJobId(), oldest);
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private record Entry(JobResult result, long expiresAt) {
+    }
+}
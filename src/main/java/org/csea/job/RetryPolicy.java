@@ -0,0 +1,115 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Settings that let a <code>JobExecutionService</code> retry Jobs that fail, rather than completing their
+ * <code>JobResult</code> with the failure straight away.
+ *
+ * A retryable failure puts the Job back in the pending queue after an exponentially growing backoff, where it is
+ * batched along with newly submitted Jobs.  The Jobs that fail in the same batch at the same attempt wait out the
+ * same backoff and go back together.  Each backoff is shortened by a random fraction, up to the jitter, so Jobs that
+ * failed together do not all come back at the same moment batch after batch.  A retried Job goes in behind the Jobs
+ * submitted while it waited, so is processed out of order relative to them.
+ *
+ * A failure is retryable unless the predicate given to {@link #retryIf(Predicate)} rejects it.  A Job still failing
+ * after the maximum number of attempts, or failing in a way that is not retryable, is completed with its last
+ * failure.
+ */
+public final class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffInMillis;
+    private final long maxBackoffInMillis;
+    private final double jitter;
+    private final Predicate<? super JobResult> retryable;
+
+    private RetryPolicy(int maxAttempts, long initialBackoffInMillis, long maxBackoffInMillis, double jitter,
+                        Predicate<? super JobResult> retryable) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffInMillis = initialBackoffInMillis;
+        this.maxBackoffInMillis = maxBackoffInMillis;
+        this.jitter = jitter;
+        this.retryable = retryable;
+    }
+
+    /**
+     * Retries every failure, doubling the backoff after each attempt, with a jitter of 0.5
+     *
+     * @param maxAttempts the most times a Job is sent to the processor, including the first
+     * @param initialBackoffInMillis the backoff after the first failure
+     * @param maxBackoffInMillis the longest backoff
+     * @return the policy
+     */
+    public static RetryPolicy exponentialBackoff(int maxAttempts, long initialBackoffInMillis, long maxBackoffInMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (initialBackoffInMillis < 0 || maxBackoffInMillis < initialBackoffInMillis) {
+            throw new IllegalArgumentException("backoff bounds must satisfy 0 <= initial <= max");
+        }
+        return new RetryPolicy(maxAttempts, initialBackoffInMillis, maxBackoffInMillis, 0.5, result -> true);
+    }
+
+    /**
+     * @param jitter the largest fraction, from 0 to 1, by which a backoff is randomly shortened
+     * @return a copy of this policy with the given jitter
+     */
+    public RetryPolicy withJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+        return new RetryPolicy(maxAttempts, initialBackoffInMillis, maxBackoffInMillis, jitter, retryable);
+    }
+
+    /**
+     * Limits retries to the failures the predicate accepts.  The others are terminal and complete the Job
+     * immediately.  When the processor throws, or returns no result for a Job, the predicate is given the FAIL
+     * result the service creates for it.  A result's failed message may be null.
+     *
+     * @param retryable accepts the failed results that are worth retrying
+     * @return a copy of this policy with the given predicate
+     */
+    public RetryPolicy retryIf(@Nonnull Predicate<? super JobResult> retryable) {
+        return new RetryPolicy(maxAttempts, initialBackoffInMillis, maxBackoffInMillis, jitter, retryable);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoffInMillis() {
+        return initialBackoffInMillis;
+    }
+
+    public long getMaxBackoffInMillis() {
+        return maxBackoffInMillis;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param failure the failed result of a Job's latest attempt
+     * @param attempts the number of times the Job has been sent to the processor
+     * @return whether the Job should be sent again
+     */
+    boolean shouldRetry(JobResult failure, int attempts) {
+        return attempts < maxAttempts && retryable.test(failure);
+    }
+
+    /**
+     * @param attempts the number of times the Job has been sent to the processor
+     * @return how long to wait before it goes back in the pending queue, with jitter applied
+     */
+    long backoffInMillis(int attempts) {
+        long backoff = initialBackoffInMillis;
+        for (int i = 1; i < attempts && backoff < maxBackoffInMillis; i++) {
+            backoff = backoff > maxBackoffInMillis / 2 ? maxBackoffInMillis : backoff * 2;
+        }
+        return backoff - (long) (backoff * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+}
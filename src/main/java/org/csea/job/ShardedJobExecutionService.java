@@ -0,0 +1,165 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A service that spreads <code>Job</code>s over several independent <code>JobExecutionService</code> lanes, each
+ * with its own pending queue, scheduler thread and batches, so throughput can scale with the number of cores.
+ *
+ * Jobs are routed by their partition key, so all the Jobs with the same key go to the same lane and are batched in
+ * the order they were submitted.  They are also processed in that order as long as the lanes are built with
+ * <code>maxInFlightBatches</code> of 1, which is the default.
+ */
+public class ShardedJobExecutionService {
+
+    private final JobExecutionService[] lanes;
+
+    /**
+     * Creates a new instance of the service
+     *
+     * @param laneCount the number of lanes
+     * @param laneBuilder the <code>Builder</code> each lane is built from.  Settings such as batchSize and capacity
+     *                    apply to each lane separately, and each lane registers its own MXBean under the jmxName
+     *                    with its index as <code>lane=i</code>
+     * @throws IllegalArgumentException if the builder has a journal, which cannot be shared between lanes
+     * @throws RuntimeException whatever building a lane threw, once the lanes already built have been shut down
+     */
+    public ShardedJobExecutionService(int laneCount, @Nonnull JobExecutionService.Builder laneBuilder) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("laneCount must be at least 1");
+        }
+        lanes = new JobExecutionService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            try {
+                lanes[i] = laneBuilder.build(i);
+            } catch (RuntimeException ex) {
+                for (int built = 0; built < i; built++) {
+                    lanes[built].shutdown();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Submit a job for execution in the lane for its partition key
+     * @param job the job to execute
+     * @return a <code>JobResult</code> for the Job
+     */
+    public JobResult submit(Job job) {
+        return laneFor(job).submit(job);
+    }
+
+    /**
+     * Submit a job for execution in the lane for its partition key, if that lane has capacity for it right now
+     * @param job the job to execute
+     * @return a <code>JobResult</code> for the Job, or empty if the lane is full
+     */
+    public Optional<JobResult> trySubmit(Job job) {
+        return laneFor(job).trySubmit(job);
+    }
+
+    /**
+     * Submit a collection of jobs for execution.  The jobs are grouped by lane and each lane receives its group with
+     * a single {@link JobExecutionService#submitAll(Collection)}.
+     *
+     * The lanes are independent, so a lane may refuse its group, for example under the REJECT policy, after other
+     * lanes have already queued theirs.  Nothing is undone then: the Jobs of a lane that refused are given FAIL
+     * results with the reason, and the rest run as usual.  Only when the first lane with Jobs refuses, before any
+     * have been queued, is the exception thrown.
+     *
+     * @param jobs the jobs to execute
+     * @return a <code>JobResult</code> for each Job, in the iteration order of <code>jobs</code>
+     * @throws RejectedExecutionException if the first lane with Jobs refused them, in which case none were queued
+     */
+    public List<JobResult> submitAll(@Nonnull Collection<? extends Job> jobs) {
+        List<List<Job>> jobsByLane = new ArrayList<>(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            jobsByLane.add(new ArrayList<>(jobs.size() / lanes.length + 1));
+        }
+        int[] laneOfJob = new int[jobs.size()];
+        int position = 0;
+        for (Job job : jobs) {
+            int lane = laneIndex(job);
+            laneOfJob[position++] = lane;
+            jobsByLane.get(lane).add(job);
+        }
+
+        List<List<JobResult>> resultsByLane = new ArrayList<>(lanes.length);
+        boolean anyQueued = false;
+        for (int i = 0; i < lanes.length; i++) {
+            List<Job> laneJobs = jobsByLane.get(i);
+            if (laneJobs.isEmpty()) {
+                resultsByLane.add(List.of());
+                continue;
+            }
+            try {
+                resultsByLane.add(lanes[i].submitAll(laneJobs));
+            } catch (RejectedExecutionException ex) {
+                if (!anyQueued) {
+                    throw ex;
+                }
+                resultsByLane.add(laneJobs.stream()
+                        .map(job -> new JobResult(job.getId(), JobExecutionStatus.FAIL, ex.getMessage()))
+                        .toList());
+            }
+            anyQueued = true;
+        }
+        int[] nextResult = new int[lanes.length];
+        List<JobResult> results = new ArrayList<>(jobs.size());
+        for (int lane : laneOfJob) {
+            results.add(resultsByLane.get(lane).get(nextResult[lane]++));
+        }
+        return results;
+    }
+
+    /**
+     * Looks up the result of a Job by its id, when the lanes are deduplicating.  The lane is not known from the id
+     * alone, so each lane is asked in turn.
+     *
+     * @param jobId the id of the Job
+     * @return the result of the Job if it is pending, running or recently completed in any lane, otherwise empty
+     */
+    public Optional<JobResult> getResult(@Nonnull UUID jobId) {
+        for (JobExecutionService lane : lanes) {
+            Optional<JobResult> result = lane.getResult(jobId);
+            if (result.isPresent()) {
+                return result;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Shuts down every lane.  Any pending jobs will be send to the <code>BatchProcessor</code> before returning
+     */
+    public void shutdown() {
+        for (JobExecutionService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of lanes jobs are spread across
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    private JobExecutionService laneFor(Job job) {
+        return lanes[laneIndex(job)];
+    }
+
+    private int laneIndex(Job job) {
+        int hash = job.getPartitionKey().hashCode();
+        // mix the high bits in, as keys with poor hash codes often only vary there
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, lanes.length);
+    }
+}
@@ -0,0 +1,24 @@
+package org.csea.job;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Interface that defines the contract with a service that processes jobs in batches and hands back each Job's
+ * result as soon as it is ready, rather than all of them once the whole batch has been processed
+ */
+public interface StreamingBatchProcessor {
+
+    /**
+     * Start processing a <code>List</code> of <code>Job</code>s.  Implementations should return promptly, give the
+     * result of each Job to the sink as it finishes, and complete the returned stage once the batch has been
+     * processed.  Any Job without a result by then is failed.
+     *
+     * @param jobs the jobs to process
+     * @param sink receives the result of each Job
+     * @return a <code>CompletionStage</code> that completes when the batch has been processed
+     */
+    CompletionStage<Void> process(@Nonnull List<Job> jobs, @Nonnull JobResultSink sink);
+
+}
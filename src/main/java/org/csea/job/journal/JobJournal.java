@@ -0,0 +1,444 @@
+package org.csea.job.journal;
+
+import org.csea.job.Job;
+import org.csea.job.JobSerializer;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only, memory-mapped write-ahead journal of the Jobs a <code>JobExecutionService</code> has accepted
+ * but not yet completed.
+ *
+ * Each submitted Job is appended as a record holding its id and its serialized form, and each completed Job as a
+ * record holding just its id.  Appending takes no lock: a writer claims the space for its record with a single
+ * atomic add and copies it into the mapped file alongside any other writers.  A Job is safe from the JVM dying as
+ * soon as it has been recorded.  Surviving the machine going down as well needs the record forced to disk, which
+ * {@link #commit()} does for everything appended since the last commit in one call, so the cost of the force is
+ * shared by a whole batch of Jobs rather than paid by each one.
+ *
+ * Each commit also records in the file's header how far the file has been forced, its watermark.  Writers finish
+ * their records out of order, so a crash can leave a slot that was claimed but never written with complete records
+ * after it.  Reading the file back steps over such slots below the watermark, but stops at the first one above it,
+ * losing any uncommitted records beyond.
+ *
+ * When the file runs out of room the unfinished Jobs are copied to a fresh file, which replaces the old one once
+ * it has been forced to disk, so completed Jobs take no space after that.  The file grows if the unfinished Jobs
+ * alone take up more than half of it.
+ *
+ * Opening a journal reads back the Jobs that were recorded without a matching completion, which
+ * {@link #recover()} hands out once.
+ */
+public final class JobJournal implements Closeable {
+
+    private static final int MAGIC = 0x4A4F424A;
+
+    private static final int VERSION = 2;
+
+    /** The offset in the header of the watermark, the end of the records last forced to disk */
+    private static final int WATERMARK_OFFSET = 8;
+
+    /** magic, version and watermark */
+    static final int FILE_HEADER_LENGTH = 12;
+
+    /** length, checksum, type, id */
+    private static final int RECORD_HEADER_LENGTH = 4 + 4 + 1 + 16;
+
+    private static final byte SUBMITTED = 1;
+
+    private static final byte COMPLETED = 2;
+
+    private final Path file;
+
+    private final JobSerializer serializer;
+
+    /** Held while the file is being replaced or closed */
+    private final Object rollLock = new Object();
+
+    private volatile Region region;
+
+    private List<Job> recovered;
+
+    private volatile boolean closed;
+
+    /**
+     * Opens the journal at the given path, creating it if it does not exist, and reads back any unfinished Jobs
+     *
+     * @param file the journal file
+     * @param capacityInBytes the initial size of the file.  An existing, larger file keeps its size
+     * @param serializer converts Jobs to and from the bytes stored in the journal
+     * @throws UncheckedIOException if the file cannot be opened, or is not a journal
+     */
+    public JobJournal(@Nonnull Path file, int capacityInBytes, @Nonnull JobSerializer serializer) {
+        if (capacityInBytes < FILE_HEADER_LENGTH + RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException("capacityInBytes is too small to hold a record");
+        }
+        this.file = file;
+        this.serializer = serializer;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long existingSize = channel.size();
+            if (existingSize > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a journal");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(existingSize, capacityInBytes));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not open the journal " + file, ex);
+        }
+        if (buffer.getInt(0) == 0) {
+            writeFileHeader(buffer, FILE_HEADER_LENGTH);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new UncheckedIOException(new IOException(file + " is not a journal"));
+        }
+        Map<UUID, Integer> unfinished = new LinkedHashMap<>();
+        int end = scan(buffer, buffer.capacity(), buffer.getInt(WATERMARK_OFFSET), unfinished);
+        // anything beyond the last record is garbage from a crash, which a later scan could take for records
+        zeroFrom(buffer, end);
+        // the records read back may only have reached the page cache before the crash
+        buffer.putInt(WATERMARK_OFFSET, end);
+        buffer.force();
+        recovered = new ArrayList<>(unfinished.size());
+        for (int offset : unfinished.values()) {
+            byte[] payload = new byte[buffer.getInt(offset) - RECORD_HEADER_LENGTH];
+            buffer.get(offset + RECORD_HEADER_LENGTH, payload);
+            recovered.add(serializer.deserialize(payload));
+        }
+        region = new Region(buffer, end);
+    }
+
+    /**
+     * Returns the Jobs that were recorded in the journal without being completed when it was opened, in the order
+     * they were submitted.  They are still unfinished as far as the journal is concerned, so should be resubmitted
+     * without being recorded again.  Later calls return an empty list.
+     *
+     * @return the unfinished Jobs
+     */
+    @Nonnull
+    public List<Job> recover() {
+        synchronized (rollLock) {
+            List<Job> jobs = recovered;
+            recovered = List.of();
+            return jobs;
+        }
+    }
+
+    /**
+     * Appends a submitted Job.  It is not forced to disk until the next {@link #commit()}.
+     *
+     * @param job the job
+     * @throws UncheckedIOException if the journal has been closed
+     */
+    public void recordSubmitted(@Nonnull Job job) {
+        append(SUBMITTED, job.getId(), serializer.serialize(job));
+    }
+
+    /**
+     * Appends a number of submitted Jobs.  They are not forced to disk until the next {@link #commit()}.
+     *
+     * @param jobs the jobs
+     * @throws UncheckedIOException if the journal has been closed
+     */
+    public void recordSubmitted(@Nonnull Collection<? extends Job> jobs) {
+        for (Job job : jobs) {
+            append(SUBMITTED, job.getId(), serializer.serialize(job));
+        }
+    }
+
+    /**
+     * Appends the completion of a number of Jobs, so they are not recovered.  Ids that were never recorded as
+     * submitted are ignored when the journal is read back.
+     *
+     * @param jobIds the ids of the completed jobs
+     * @throws UncheckedIOException if the journal has been closed
+     */
+    public void recordCompleted(@Nonnull Collection<UUID> jobIds) {
+        for (UUID jobId : jobIds) {
+            append(COMPLETED, jobId, null);
+        }
+    }
+
+    /**
+     * Forces to disk every record whose append finished before this was called, and has not been committed yet
+     *
+     * @throws UncheckedIOException if the journal has been closed
+     */
+    public void commit() {
+        checkOpen();
+        // if the file is replaced meanwhile, the new file is forced in full before it takes over
+        region.commit();
+    }
+
+    /**
+     * Commits anything outstanding and closes the journal.  Any later append throws.
+     */
+    @Override
+    public void close() {
+        synchronized (rollLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Region current = region;
+            current.seal();
+            current.commit();
+        }
+    }
+
+    private void append(byte type, UUID jobId, byte[] payload) {
+        int length = RECORD_HEADER_LENGTH + (payload == null ? 0 : payload.length);
+        while (true) {
+            Region current = region;
+            if (current.tryAppend(type, jobId, payload, length)) {
+                return;
+            }
+            roll(current, length);
+        }
+    }
+
+    /**
+     * Replaces a full or closed region with a new file holding just the unfinished Jobs' records
+     */
+    private void roll(Region full, int neededLength) {
+        synchronized (rollLock) {
+            checkOpen();
+            if (region != full) {
+                // another writer has already replaced it
+                return;
+            }
+            full.seal();
+            Map<UUID, Integer> unfinished = new LinkedHashMap<>();
+            scan(full.buffer, full.getEnd(), full.getEnd(), unfinished);
+            long liveLength = 0;
+            for (int offset : unfinished.values()) {
+                liveLength += full.buffer.getInt(offset);
+            }
+            long capacity = Math.max(full.buffer.capacity(), 2 * (FILE_HEADER_LENGTH + liveLength + neededLength));
+            if (capacity > Integer.MAX_VALUE) {
+                throw new UncheckedIOException(new IOException("The journal " + file + " is full"));
+            }
+            Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+            MappedByteBuffer target;
+            try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                target = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not compact the journal " + file, ex);
+            }
+            int position = FILE_HEADER_LENGTH;
+            for (int offset : unfinished.values()) {
+                int length = full.buffer.getInt(offset);
+                target.put(position, full.buffer, offset, length);
+                position += length;
+            }
+            writeFileHeader(target, position);
+            target.force();
+            try {
+                try {
+                    Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not compact the journal " + file, ex);
+            }
+            // the rename is only durable once the directory holding it is
+            forceDirectory(file.toAbsolutePath().getParent());
+            region = new Region(target, position);
+        }
+    }
+
+    /**
+     * Reads the records in the buffer up to <code>limit</code>, leaving the offsets of the submitted records with
+     * no completion in their order of submission.  A record whose checksum does not match was cut short by a crash
+     * and is skipped.  Below the watermark, where later records were committed, a slot that was never written or
+     * whose length is damaged is searched past a byte at a time for the next record whose checksum matches.  Above
+     * it, such a slot ends the records.
+     *
+     * @return the offset just past the last record
+     */
+    private static int scan(MappedByteBuffer buffer, int limit, int watermark, Map<UUID, Integer> unfinished) {
+        int offset = FILE_HEADER_LENGTH;
+        while (offset + RECORD_HEADER_LENGTH <= limit) {
+            int length = buffer.getInt(offset);
+            boolean framed = length >= RECORD_HEADER_LENGTH && offset + length <= limit;
+            if (framed && buffer.getInt(offset + 4) == checksum(buffer, offset, length)) {
+                UUID jobId = new UUID(buffer.getLong(offset + 9), buffer.getLong(offset + 17));
+                if (buffer.get(offset + 8) == SUBMITTED) {
+                    unfinished.put(jobId, offset);
+                } else {
+                    unfinished.remove(jobId);
+                }
+                offset += length;
+            } else if (offset < watermark) {
+                offset++;
+            } else if (framed) {
+                offset += length;
+            } else {
+                break;
+            }
+        }
+        return Math.max(offset, Math.min(watermark, limit));
+    }
+
+    /**
+     * Zeroes the buffer from the offset to its end, writing only where it is not zero already so that untouched
+     * pages stay clean
+     */
+    private static void zeroFrom(MappedByteBuffer buffer, int offset) {
+        int i = offset;
+        int limit = buffer.capacity();
+        for (; i < limit && (i & 7) != 0; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        for (; i + 8 <= limit; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                buffer.putLong(i, 0);
+            }
+        }
+        for (; i < limit; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Forces a directory's entries to disk.  Not every platform can open a directory to do so, in which case a
+     * rename within it is as durable as that platform makes it anyway
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // not supported here
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new UncheckedIOException(new IOException("The journal " + file + " has been closed"));
+        }
+    }
+
+    private static void writeFileHeader(MappedByteBuffer target, int watermark) {
+        target.putInt(0, MAGIC);
+        target.putInt(4, VERSION);
+        target.putInt(WATERMARK_OFFSET, watermark);
+    }
+
+    private static int checksum(MappedByteBuffer source, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(source.slice(offset + 8, length - 8));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * One mapping of the journal file, appended to until it is full
+     */
+    private static final class Region {
+
+        private final MappedByteBuffer buffer;
+
+        /** The offset the next record will be claimed at.  Runs past the capacity once the region is full */
+        private final AtomicLong claimed;
+
+        /** Writers that may still claim or be writing a record */
+        private final AtomicInteger writers = new AtomicInteger();
+
+        private volatile boolean sealed;
+
+        /** Everything before this offset has been forced to disk.  Guarded by this */
+        private long committed;
+
+        private Region(MappedByteBuffer buffer, int end) {
+            this.buffer = buffer;
+            this.claimed = new AtomicLong(end);
+            this.committed = end;
+        }
+
+        /**
+         * @return false if the record did not fit, or the region has been sealed
+         */
+        private boolean tryAppend(byte type, UUID jobId, byte[] payload, int length) {
+            writers.incrementAndGet();
+            try {
+                // checked after registering as a writer, so either seal() waits for this writer or this sees sealed
+                if (sealed) {
+                    return false;
+                }
+                long start = claimed.getAndAdd(length);
+                if (start + length > buffer.capacity()) {
+                    return false;
+                }
+                int offset = (int) start;
+                // the length goes in first so a record cut short by a crash can be stepped over, the checksum last
+                buffer.putInt(offset, length);
+                buffer.put(offset + 8, type);
+                buffer.putLong(offset + 9, jobId.getMostSignificantBits());
+                buffer.putLong(offset + 17, jobId.getLeastSignificantBits());
+                if (payload != null) {
+                    buffer.put(offset + RECORD_HEADER_LENGTH, payload);
+                }
+                buffer.putInt(offset + 4, checksum(buffer, offset, length));
+                return true;
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+
+        /**
+         * Stops any further records being claimed, and waits for the writers already in the region to finish
+         */
+        private void seal() {
+            sealed = true;
+            while (writers.get() != 0) {
+                Thread.yield();
+            }
+        }
+
+        /**
+         * @return the offset just past the last record that fits
+         */
+        private int getEnd() {
+            return (int) Math.min(claimed.get(), buffer.capacity());
+        }
+
+        /**
+         * Forces everything from the last commit up to the records claimed so far, along with the header holding
+         * them as the watermark.  A writer registers before it claims and leaves once its record is written, so
+         * seeing no writers after reading the claimed offset means every record before it was complete.  Otherwise a
+         * record in the range may still have been part written, and the next commit forces the range again rather
+         * than start after it.  Should the header reach the disk before the records do, the records missing below
+         * the watermark are skipped when it is read back, just as a slot still being written is.
+         */
+        private synchronized void commit() {
+            int end = getEnd();
+            boolean complete = writers.get() == 0;
+            if (end > committed) {
+                buffer.putInt(WATERMARK_OFFSET, end);
+                // one force from the start of the file covers the header too, and only writes the dirty pages
+                buffer.force(0, end);
+                if (complete) {
+                    committed = end;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.csea.job.metrics;
+
+/**
+ * The metrics of a <code>JobExecutionService</code> as exposed over JMX.  Times are in milliseconds.
+ */
+public interface JobExecutionServiceMXBean {
+
+    int getQueueDepth();
+
+    int getInFlightBatches();
+
+    int getBatchSize();
+
+    long getMaxDelayInMillis();
+
+    long getSubmittedJobs();
+
+    long getSucceededJobs();
+
+    long getFailedJobs();
+
+    long getRejectedJobs();
+
+    long getDroppedJobs();
+
+    long getRetriedJobs();
+
+    long getBatches();
+
+    double getBatchFillRatio();
+
+    double getPendingTimeP50();
+
+    double getPendingTimeP99();
+
+    double getRunningTimeP50();
+
+    double getRunningTimeP99();
+
+    double getProcessLatencyP50();
+
+    double getProcessLatencyP99();
+
+    double getProcessLatencyMax();
+}
@@ -0,0 +1,15 @@
+package org.csea.job.metrics;
+
+/**
+ * Receives the metrics of a <code>JobExecutionService</code> at a regular interval, and once more when the service
+ * shuts down.  Called on the service's scheduler thread, so implementations should hand off anything slow.
+ */
+@FunctionalInterface
+public interface MetricsListener {
+
+    /**
+     * @param snapshot the current metrics
+     */
+    void onMetrics(MetricsSnapshot snapshot);
+
+}
@@ -0,0 +1,168 @@
+package org.csea.job.metrics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The state of a <code>JobExecutionService</code>'s metrics at one point in time.  Counts and histograms cover
+ * everything since the service was created; queue depth and in-flight batches are the values at the time the
+ * snapshot was taken.
+ */
+public final class MetricsSnapshot {
+
+    private final long timestampInMillis;
+    private final long submittedJobs;
+    private final long succeededJobs;
+    private final long failedJobs;
+    private final long rejectedJobs;
+    private final long droppedJobs;
+    private final long retriedJobs;
+    private final long batches;
+    private final long batchedJobs;
+    private final long batchSlots;
+    private final int queueDepth;
+    private final int inFlightBatches;
+    private final LatencyHistogram pendingTime;
+    private final LatencyHistogram runningTime;
+    private final LatencyHistogram processLatency;
+
+    /**
+     * Creates a new snapshot.  The histograms are kept as given, so callers should pass copies.
+     */
+    public MetricsSnapshot(long timestampInMillis, long submittedJobs, long succeededJobs, long failedJobs,
+                           long rejectedJobs, long droppedJobs, long retriedJobs, long batches, long batchedJobs,
+                           long batchSlots, int queueDepth, int inFlightBatches, @Nonnull LatencyHistogram pendingTime,
+                           @Nonnull LatencyHistogram runningTime, @Nonnull LatencyHistogram processLatency) {
+        this.timestampInMillis = timestampInMillis;
+        this.submittedJobs = submittedJobs;
+        this.succeededJobs = succeededJobs;
+        this.failedJobs = failedJobs;
+        this.rejectedJobs = rejectedJobs;
+        this.droppedJobs = droppedJobs;
+        this.retriedJobs = retriedJobs;
+        this.batches = batches;
+        this.batchedJobs = batchedJobs;
+        this.batchSlots = batchSlots;
+        this.queueDepth = queueDepth;
+        this.inFlightBatches = inFlightBatches;
+        this.pendingTime = pendingTime;
+        this.runningTime = runningTime;
+        this.processLatency = processLatency;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTimestampInMillis() {
+        return timestampInMillis;
+    }
+
+    /**
+     * @return the number of Jobs accepted into the pending queue
+     */
+    public long getSubmittedJobs() {
+        return submittedJobs;
+    }
+
+    /**
+     * @return the number of Jobs that completed with a SUCCESS status
+     */
+    public long getSucceededJobs() {
+        return succeededJobs;
+    }
+
+    /**
+     * @return the number of Jobs that were sent to the processor and completed with a FAIL status
+     */
+    public long getFailedJobs() {
+        return failedJobs;
+    }
+
+    /**
+     * @return the number of Jobs turned away because the service was at capacity
+     */
+    public long getRejectedJobs() {
+        return rejectedJobs;
+    }
+
+    /**
+     * @return the number of pending Jobs dropped to make room for newer ones
+     */
+    public long getDroppedJobs() {
+        return droppedJobs;
+    }
+
+    /**
+     * @return the number of times a failed Job was put back in the pending queue to be retried
+     */
+    public long getRetriedJobs() {
+        return retriedJobs;
+    }
+
+    /**
+     * @return the number of batches sent to the processor
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the number of Jobs sent to the processor
+     */
+    public long getBatchedJobs() {
+        return batchedJobs;
+    }
+
+    /**
+     * @return the room there was in the batches sent: the batch size at the time of each batch, summed
+     */
+    public long getBatchSlots() {
+        return batchSlots;
+    }
+
+    /**
+     * How full batches have been on average: the Jobs sent divided by the batch size at the time of each batch
+     *
+     * @return a ratio between 0 and 1, or 0 if no batches have been sent
+     */
+    public double getBatchFillRatio() {
+        return batchSlots == 0 ? 0 : (double) batchedJobs / batchSlots;
+    }
+
+    /**
+     * @return the number of Jobs pending when the snapshot was taken
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the number of batches with the processor when the snapshot was taken
+     */
+    public int getInFlightBatches() {
+        return inFlightBatches;
+    }
+
+    /**
+     * @return the time in nanoseconds each Job spent PENDING, from submission until its batch was sent
+     */
+    @Nonnull
+    public LatencyHistogram getPendingTime() {
+        return pendingTime;
+    }
+
+    /**
+     * @return the time in nanoseconds each Job spent RUNNING, from its batch being sent until it completed
+     */
+    @Nonnull
+    public LatencyHistogram getRunningTime() {
+        return runningTime;
+    }
+
+    /**
+     * @return the time in nanoseconds each call to the processor took
+     */
+    @Nonnull
+    public LatencyHistogram getProcessLatency() {
+        return processLatency;
+    }
+}
@@ -0,0 +1,161 @@
+package org.csea.job.remote;
+
+import org.csea.job.JobExecutionStatus;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The wire format shared by {@link SocketBatchProcessor} and {@link LoopbackBatchServer}.
+ *
+ * Every frame starts with an int holding the number of bytes that follow it, then the long id of the batch the frame
+ * belongs to and an int count of the entries in it.  All values are big-endian.
+ * <ul>
+ *     <li>A batch frame holds one entry per Job: an int length followed by that many bytes from the
+ *     <code>JobSerializer</code>.</li>
+ *     <li>A results frame holds one entry per <code>JobResult</code>: the Job id as two longs, the status as a
+ *     byte, and the failed message as an int length followed by that many bytes of UTF-8, or a length of -1 for
+ *     no message.</li>
+ * </ul>
+ * Results frames may come back in a different order from the batches they answer, so the batch id is what ties the
+ * two together.
+ */
+final class BatchFrames {
+
+    /** The batch id and the entry count */
+    static final int HEADER_LENGTH = 8 + 4;
+
+    /** Id, status and message length, not counting the message itself */
+    static final int RESULT_ENTRY_LENGTH = 16 + 1 + 4;
+
+    /** Frames claiming to be longer than this are treated as a corrupt stream */
+    static final int MAX_FRAME_LENGTH = 64 << 20;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 << 10;
+
+    private static final JobExecutionStatus[] STATUSES = JobExecutionStatus.values();
+
+    private BatchFrames() {
+    }
+
+    /**
+     * @return a direct buffer able to hold <code>length</code> bytes: the given buffer if it is big enough, otherwise
+     * a new one
+     */
+    static ByteBuffer ensureCapacity(ByteBuffer buffer, int length) {
+        if (buffer != null && buffer.capacity() >= length) {
+            return buffer;
+        }
+        int capacity = Math.max(INITIAL_BUFFER_SIZE, Integer.highestOneBit(length - 1) << 1);
+        return ByteBuffer.allocateDirect(capacity > 0 ? capacity : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes the buffer's remaining bytes in full
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static void putMessage(ByteBuffer buffer, byte[] message) {
+        if (message == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(message.length);
+            buffer.put(message);
+        }
+    }
+
+    static String getMessage(ByteBuffer frame) throws IOException {
+        int length = frame.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > frame.remaining()) {
+            throw new IOException("A failed message of " + length + " bytes overruns its frame");
+        }
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static byte encodeStatus(JobExecutionStatus status) {
+        return (byte) status.ordinal();
+    }
+
+    static JobExecutionStatus decodeStatus(byte status) throws IOException {
+        if (status < 0 || status >= STATUSES.length) {
+            throw new IOException("Unknown job status " + status);
+        }
+        return STATUSES[status];
+    }
+
+    /**
+     * Reads whole frames from a channel into one reused direct buffer.  Several frames that arrive together are
+     * handed out one at a time without reading the channel again.
+     */
+    static final class Reader {
+
+        private final ReadableByteChannel channel;
+
+        /** Bytes read but not yet handed out lie between the position and the limit */
+        private ByteBuffer buffer;
+
+        Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.buffer = ensureCapacity(null, INITIAL_BUFFER_SIZE).flip();
+        }
+
+        /**
+         * Blocks until the next frame has been read in full.  The frame is only valid until the next call.
+         *
+         * @return the frame, positioned just after its length, or null if the channel was closed between frames
+         * @throws EOFException if the channel was closed part way through a frame
+         * @throws IOException if reading fails, or the frame is too long
+         */
+        ByteBuffer next() throws IOException {
+            if (!fill(4)) {
+                if (buffer.hasRemaining()) {
+                    throw new EOFException("The connection was closed part way through a frame");
+                }
+                return null;
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length < HEADER_LENGTH || length > MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (!fill(4 + length)) {
+                throw new EOFException("The connection was closed part way through a frame");
+            }
+            int start = buffer.position() + 4;
+            buffer.position(start + length);
+            return buffer.slice(start, length);
+        }
+
+        /**
+         * Reads until at least <code>needed</code> bytes are buffered, making room first if they would not fit
+         *
+         * @return false if the channel was closed first
+         */
+        private boolean fill(int needed) throws IOException {
+            while (buffer.remaining() < needed) {
+                if (buffer.capacity() < needed) {
+                    buffer = ensureCapacity(null, needed).put(buffer).flip();
+                }
+                buffer.compact();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.csea.job.remote;
+
+import org.csea.job.BatchProcessor;
+import org.csea.job.Job;
+import org.csea.job.JobExecutionStatus;
+import org.csea.job.JobResult;
+import org.csea.job.JobSerializer;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A stand-in for a remote worker, listening on the loopback interface, that processes the batches a
+ * {@link SocketBatchProcessor} sends it with a local <code>BatchProcessor</code>.  It lets remote batching be
+ * tested and benchmarked on one machine, framing and all.
+ *
+ * Each connection has a thread reading its batches, which are processed on a shared pool so that pipelined batches
+ * run side by side and their results go back in whatever order they finish.  A processor that throws fails each Job
+ * of its batch, with the exception in the failed message.
+ */
+public final class LoopbackBatchServer implements Closeable {
+
+    static final String PROCESSOR_FAILED_MESSAGE = "The remote BatchProcessor failed: ";
+
+    private final BatchProcessor batchProcessor;
+
+    private final JobSerializer serializer;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final ExecutorService workers;
+
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    /**
+     * Starts listening on an ephemeral port of the loopback address
+     *
+     * @param batchProcessor processes the batches received
+     * @param serializer rebuilds the Jobs from the bytes received
+     * @param workerThreads how many batches may be processed at the same time, across all connections
+     * @throws UncheckedIOException if the server cannot listen
+     */
+    public LoopbackBatchServer(@Nonnull BatchProcessor batchProcessor, @Nonnull JobSerializer serializer,
+                               int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be at least 1");
+        }
+        this.batchProcessor = batchProcessor;
+        this.serializer = serializer;
+        try {
+            this.serverChannel = ServerSocketChannel.open()
+                    .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not listen on the loopback address", ex);
+        }
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+        Thread acceptor = new Thread(this::accept, "loopback-batch-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the address to give a <code>SocketBatchProcessor</code>
+     */
+    @Nonnull
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Stops listening and closes every connection.  Batches being processed are abandoned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverChannel);
+        for (SocketChannel connection : connections) {
+            closeQuietly(connection);
+        }
+        workers.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException ex) {
+                // closed, or the client gave up while being accepted
+                continue;
+            }
+            connections.add(channel);
+            if (closed) {
+                closeQuietly(channel);
+                return;
+            }
+            Connection connection = new Connection(channel);
+            Thread reader = new Thread(connection::readBatches, "loopback-batch-connection-" + connections.size());
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            // nothing more can be done with it
+        }
+    }
+
+    /**
+     * One client's connection
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        /** Guarded by this */
+        private ByteBuffer writeBuffer;
+
+        /** The encoded failed messages of the results being written.  Guarded by this */
+        private final List<byte[]> encodedMessages = new ArrayList<>();
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void readBatches() {
+            BatchFrames.Reader frames = new BatchFrames.Reader(channel);
+            try {
+                ByteBuffer frame;
+                while ((frame = frames.next()) != null) {
+                    long batchId = frame.getLong();
+                    List<Job> jobs = decodeJobs(frame, frame.getInt());
+                    workers.execute(() -> process(batchId, jobs));
+                }
+            } catch (IOException | RuntimeException ex) {
+                // the client went away, sent something unreadable, or the server is closing
+            } finally {
+                connections.remove(channel);
+                closeQuietly(channel);
+            }
+        }
+
+        private List<Job> decodeJobs(ByteBuffer frame, int count) throws IOException {
+            if (count < 0 || (long) count * 4 > frame.remaining()) {
+                throw new IOException("A batch frame of " + frame.limit() + " bytes cannot hold " + count + " jobs");
+            }
+            List<Job> jobs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = frame.getInt();
+                if (length < 0 || length > frame.remaining()) {
+                    throw new IOException("A job of " + length + " bytes overruns its frame");
+                }
+                byte[] bytes = new byte[length];
+                frame.get(bytes);
+                jobs.add(serializer.deserialize(bytes));
+            }
+            return jobs;
+        }
+
+        private void process(long batchId, List<Job> jobs) {
+            List<JobResult> results;
+            try {
+                results = batchProcessor.process(jobs);
+            } catch (RuntimeException ex) {
+                results = new ArrayList<>(jobs.size());
+                for (Job job : jobs) {
+                    results.add(new JobResult(job.getId(), JobExecutionStatus.FAIL, PROCESSOR_FAILED_MESSAGE + ex));
+                }
+            }
+            try {
+                write(batchId, results == null ? List.of() : results);
+            } catch (IOException ex) {
+                // the client has gone, or the stream is no longer usable, so its reader gives up too
+                closeQuietly(channel);
+            }
+        }
+
+        private synchronized void write(long batchId, List<JobResult> results) throws IOException {
+            try {
+                long length = BatchFrames.HEADER_LENGTH;
+                for (JobResult result : results) {
+                    String message = result.getFailedMessage();
+                    byte[] bytes = message == null ? null : message.getBytes(StandardCharsets.UTF_8);
+                    encodedMessages.add(bytes);
+                    length += BatchFrames.RESULT_ENTRY_LENGTH + (bytes == null ? 0 : bytes.length);
+                }
+                if (length > BatchFrames.MAX_FRAME_LENGTH) {
+                    throw new IOException("The results of batch " + batchId + " are too long for a frame");
+                }
+                ByteBuffer buffer = writeBuffer = BatchFrames.ensureCapacity(writeBuffer, 4 + (int) length);
+                buffer.clear();
+                buffer.putInt((int) length);
+                buffer.putLong(batchId);
+                buffer.putInt(results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    JobResult result = results.get(i);
+                    buffer.putLong(result.getJobId().getMostSignificantBits());
+                    buffer.putLong(result.getJobId().getLeastSignificantBits());
+                    buffer.put(BatchFrames.encodeStatus(result.getStatus()));
+                    BatchFrames.putMessage(buffer, encodedMessages.get(i));
+                }
+                buffer.flip();
+                BatchFrames.writeFully(channel, buffer);
+            } finally {
+                encodedMessages.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package org.csea.job.remote;
+
+import org.csea.job.AsyncBatchProcessor;
+import org.csea.job.BatchProcessor;
+import org.csea.job.Job;
+import org.csea.job.JobResult;
+import org.csea.job.JobSerializer;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends batches to a remote worker over a single <code>SocketChannel</code>, and completes each batch once the
+ * worker's results for it come back.  The wire format is described in {@link BatchFrames}; a
+ * {@link LoopbackBatchServer} speaks the worker's side of it.
+ *
+ * Batches are pipelined: each one is written as soon as it is handed over, without waiting for the results of the
+ * ones before it, and a reader thread matches each results frame to its batch by id, so the worker may answer
+ * them in any order.  Batches are encoded and written by a writer thread of the processor's own, so the service
+ * thread handing a batch over never blocks on the socket.  The number of batches outstanding on the connection is
+ * whatever the service allows in flight, so a service built with <code>asyncBuilder</code> and
+ * <code>maxInFlightBatches(n)</code> keeps up to n batches on the wire.
+ *
+ * If the connection fails, every outstanding batch and any later one fails with an
+ * <code>UncheckedIOException</code>, which the service reports as a FAIL result for each of their Jobs.
+ */
+public final class SocketBatchProcessor implements BatchProcessor, AsyncBatchProcessor, Closeable {
+
+    private final SocketChannel channel;
+
+    private final JobSerializer serializer;
+
+    private final ConcurrentHashMap<Long, CompletableFuture<List<JobResult>>> outstanding = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextBatchId = new AtomicLong();
+
+    /** Encodes and writes the batches one at a time, in the order they were handed over */
+    private final ExecutorService writer;
+
+    /** Only accessed by the writer thread */
+    private ByteBuffer writeBuffer;
+
+    /** The serialized Jobs of the batch being written.  Only accessed by the writer thread */
+    private final List<byte[]> encodedJobs = new ArrayList<>();
+
+    /** Set once the connection has failed or been closed */
+    private volatile UncheckedIOException failure;
+
+    /**
+     * Connects to a worker
+     *
+     * @param address the worker's address
+     * @param serializer converts the Jobs to the bytes sent to the worker
+     * @throws UncheckedIOException if the connection cannot be made
+     */
+    public SocketBatchProcessor(@Nonnull InetSocketAddress address, @Nonnull JobSerializer serializer) {
+        this.serializer = serializer;
+        try {
+            this.channel = SocketChannel.open(address);
+            // batches are written whole, so there is nothing to gain from waiting to coalesce them
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not connect to " + address, ex);
+        }
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "socket-batch-writer-" + address);
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread reader = new Thread(this::readResults, "socket-batch-reader-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends the batch and blocks until its results come back
+     *
+     * @throws UncheckedIOException if the connection fails before then
+     */
+    @Override
+    public List<JobResult> process(List<Job> jobs) {
+        try {
+            return processAsync(jobs).toCompletableFuture().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Hands the batch to the writer thread.  The calling thread waits for neither the write nor the results.
+     */
+    @Override
+    public CompletionStage<List<JobResult>> processAsync(List<Job> jobs) {
+        long batchId = nextBatchId.getAndIncrement();
+        CompletableFuture<List<JobResult>> results = new CompletableFuture<>();
+        outstanding.put(batchId, results);
+        // checked after registering, so either this sees the failure or the failure sees this batch
+        UncheckedIOException failed = failure;
+        if (failed != null) {
+            fail(batchId, failed);
+            return results;
+        }
+        try {
+            writer.execute(() -> send(batchId, jobs));
+        } catch (RejectedExecutionException ex) {
+            // closed meanwhile, and the failure has been set before the writer was shut down
+            fail(batchId, failure);
+        }
+        return results;
+    }
+
+    /**
+     * Closes the connection.  Batches still outstanding fail.
+     */
+    @Override
+    public void close() {
+        connectionFailed(new IOException("The SocketBatchProcessor has been closed"));
+        writer.shutdown();
+    }
+
+    /**
+     * Writes a batch, on the writer thread
+     */
+    private void send(long batchId, List<Job> jobs) {
+        if (failure != null) {
+            // connectionFailed has failed, or is about to fail, every outstanding batch
+            return;
+        }
+        try {
+            write(batchId, jobs);
+        } catch (IOException ex) {
+            connectionFailed(ex);
+        } catch (RuntimeException ex) {
+            // a Job that could not be serialized fails its own batch, not the connection
+            CompletableFuture<List<JobResult>> results = outstanding.remove(batchId);
+            if (results != null) {
+                results.completeExceptionally(ex);
+            }
+        }
+    }
+
+    private void write(long batchId, List<Job> jobs) throws IOException {
+        try {
+            long length = BatchFrames.HEADER_LENGTH;
+            for (Job job : jobs) {
+                byte[] bytes = serializer.serialize(job);
+                encodedJobs.add(bytes);
+                length += 4 + bytes.length;
+            }
+            if (length > BatchFrames.MAX_FRAME_LENGTH) {
+                throw new IllegalArgumentException("A batch of " + length + " bytes is more than the "
+                        + BatchFrames.MAX_FRAME_LENGTH + " a frame can hold");
+            }
+            ByteBuffer buffer = writeBuffer = BatchFrames.ensureCapacity(writeBuffer, 4 + (int) length);
+            buffer.clear();
+            buffer.putInt((int) length);
+            buffer.putLong(batchId);
+            buffer.putInt(jobs.size());
+            for (byte[] bytes : encodedJobs) {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+            buffer.flip();
+            BatchFrames.writeFully(channel, buffer);
+        } finally {
+            encodedJobs.clear();
+        }
+    }
+
+    private void readResults() {
+        BatchFrames.Reader frames = new BatchFrames.Reader(channel);
+        try {
+            ByteBuffer frame;
+            while ((frame = frames.next()) != null) {
+                long batchId = frame.getLong();
+                int count = frame.getInt();
+                if (!outstanding.containsKey(batchId)) {
+                    throw new IOException("Results were received for unknown batch " + batchId);
+                }
+                // decoded before the batch is removed, so a corrupt frame fails it along with the connection
+                List<JobResult> results = decodeResults(frame, count);
+                CompletableFuture<List<JobResult>> batch = outstanding.remove(batchId);
+                if (batch != null) {
+                    batch.complete(results);
+                }
+            }
+            throw new EOFException("The worker closed the connection");
+        } catch (IOException ex) {
+            connectionFailed(ex);
+        }
+    }
+
+    private static List<JobResult> decodeResults(ByteBuffer frame, int count) throws IOException {
+        if (count < 0 || (long) count * BatchFrames.RESULT_ENTRY_LENGTH > frame.remaining()) {
+            throw new IOException("A results frame of " + frame.limit() + " bytes cannot hold " + count + " results");
+        }
+        List<JobResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UUID jobId = new UUID(frame.getLong(), frame.getLong());
+            results.add(new JobResult(jobId, BatchFrames.decodeStatus(frame.get()), BatchFrames.getMessage(frame)));
+        }
+        return results;
+    }
+
+    private void connectionFailed(IOException cause) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = new UncheckedIOException("The connection to the worker failed", cause);
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // the connection is being abandoned anyway
+        }
+        for (Long batchId : outstanding.keySet()) {
+            fail(batchId, failure);
+        }
+    }
+
+    private void fail(long batchId, UncheckedIOException cause) {
+        CompletableFuture<List<JobResult>> results = outstanding.remove(batchId);
+        if (results != null) {
+            results.completeExceptionally(cause);
+        }
+    }
+}
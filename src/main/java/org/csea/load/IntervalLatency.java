@@ -0,0 +1,55 @@
+package org.csea.load;
+
+import org.csea.job.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies recorded since the interval was last taken, without losing any recorded as it is taken.
+ *
+ * Recording alternates between two histograms.  Each recorder counts itself in on <code>epoch</code>, whose sign says
+ * which histogram is current, and counts itself out on that histogram's own end counter once its value is in.  Taking
+ * the interval flips the sign and then waits for the end counter of the outgoing histogram to catch up with the
+ * count it was flipped at, after which nothing more can land in it.  Recording stays a few uncontended atomic adds.
+ */
+final class IntervalLatency {
+
+    /** Index 0 while <code>epoch</code> is non-negative, 1 while it is negative */
+    private final LatencyHistogram[] histograms = {new LatencyHistogram(), new LatencyHistogram()};
+
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final AtomicLong evenEnd = new AtomicLong();
+
+    private final AtomicLong oddEnd = new AtomicLong(Long.MIN_VALUE);
+
+    void record(long value) {
+        long entered = epoch.getAndIncrement();
+        if (entered < 0) {
+            histograms[1].record(value);
+            oddEnd.incrementAndGet();
+        } else {
+            histograms[0].record(value);
+            evenEnd.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the values recorded since this was last called
+     */
+    synchronized LatencyHistogram take() {
+        boolean odd = epoch.get() < 0;
+        long incomingStart = odd ? 0 : Long.MIN_VALUE;
+        (odd ? evenEnd : oddEnd).set(incomingStart);
+        long entered = epoch.getAndSet(incomingStart);
+        AtomicLong outgoingEnd = odd ? oddEnd : evenEnd;
+        while (outgoingEnd.get() != entered) {
+            Thread.yield();
+        }
+        int outgoing = odd ? 1 : 0;
+        LatencyHistogram taken = histograms[outgoing];
+        // not current again until the next take, which publishes this with its flip of the epoch
+        histograms[outgoing] = new LatencyHistogram();
+        return taken;
+    }
+}
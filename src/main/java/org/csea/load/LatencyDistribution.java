@@ -0,0 +1,118 @@
+package org.csea.load;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A source of random latencies for a {@link SyntheticBatchProcessor}
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    /**
+     * @return the next latency, in nanoseconds.  Never negative
+     */
+    long nextNanos();
+
+    /**
+     * @param millis the latency
+     * @return a distribution that always gives the same latency
+     */
+    static LatencyDistribution fixed(double millis) {
+        long nanos = toNanos(millis);
+        return () -> nanos;
+    }
+
+    /**
+     * @param minMillis the lowest latency
+     * @param maxMillis the highest latency
+     * @return a distribution that gives latencies spread evenly between the two
+     */
+    static LatencyDistribution uniform(double minMillis, double maxMillis) {
+        if (maxMillis < minMillis) {
+            throw new IllegalArgumentException("maxMillis must be at least minMillis");
+        }
+        long min = toNanos(minMillis);
+        long max = toNanos(maxMillis);
+        return () -> min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+    }
+
+    /**
+     * @param meanMillis the mean latency
+     * @return a distribution with a long, thin tail, as a service with randomly arriving work has
+     */
+    static LatencyDistribution exponential(double meanMillis) {
+        double mean = toNanos(meanMillis);
+        return () -> (long) (-mean * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * @param medianMillis the median latency
+     * @param p99Millis the 99th percentile latency
+     * @return a distribution whose logarithm is normally distributed, which is the usual shape of measured service
+     * latencies
+     */
+    static LatencyDistribution logNormal(double medianMillis, double p99Millis) {
+        if (medianMillis <= 0 || p99Millis < medianMillis) {
+            throw new IllegalArgumentException("medianMillis must be positive and p99Millis at least medianMillis");
+        }
+        double mu = Math.log(toNanos(medianMillis));
+        // the 99th percentile of a normal distribution is 2.326 standard deviations above its median
+        double sigma = Math.log(p99Millis / medianMillis) / 2.326;
+        return () -> (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+    }
+
+    /**
+     * Reads a distribution from its description, with every latency in milliseconds
+     * <ul>
+     *     <li><code>fixed:2</code></li>
+     *     <li><code>uniform:1:5</code> for between 1 and 5</li>
+     *     <li><code>exponential:2</code> for a mean of 2</li>
+     *     <li><code>lognormal:2:20</code> for a median of 2 and a 99th percentile of 20</li>
+     * </ul>
+     *
+     * @param description the description
+     * @return the distribution
+     * @throws IllegalArgumentException if the description cannot be read
+     */
+    static LatencyDistribution parse(@Nonnull String description) {
+        String[] parts = description.split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    if (parts.length == 2) {
+                        return fixed(Double.parseDouble(parts[1]));
+                    }
+                    break;
+                case "uniform":
+                    if (parts.length == 3) {
+                        return uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    }
+                    break;
+                case "exponential":
+                    if (parts.length == 2) {
+                        return exponential(Double.parseDouble(parts[1]));
+                    }
+                    break;
+                case "lognormal":
+                    if (parts.length == 3) {
+                        return logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid latency distribution " + description, ex);
+        }
+        throw new IllegalArgumentException("Invalid latency distribution " + description
+                + ", expected fixed:ms, uniform:min:max, exponential:mean or lognormal:median:p99");
+    }
+
+    private static long toNanos(double millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Latencies cannot be negative");
+        }
+        return (long) (millis * 1_000_000);
+    }
+}
@@ -0,0 +1,209 @@
+package org.csea.load;
+
+import org.csea.job.Job;
+import org.csea.job.JobExecutionService;
+import org.csea.job.JobExecutionStatus;
+import org.csea.job.JobResult;
+import org.csea.job.metrics.LatencyHistogram;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Submits Jobs to a <code>JobExecutionService</code> at a fixed rate and records how long each takes to complete.
+ *
+ * The load is open loop: the i-th Job is due at <code>start + i / rate</code> whatever happened to the Jobs before
+ * it, as it would be with independent clients.  When the service pushes back, for example by blocking submit when it
+ * is full, the generator falls behind and then submits the overdue Jobs back to back to catch up.  Latency is
+ * measured from when each Job was due rather than when it was actually submitted, so time spent waiting to get in
+ * counts against the service.  Measuring from the submit instead would leave that time out, and with it the Jobs that
+ * had the worst of it, which is the error known as coordinated omission.  The uncorrected figure is kept as well, for
+ * comparison.
+ */
+public class LoadGenerator {
+
+    private final JobExecutionService service;
+
+    private final long intervalInNanos;
+
+    /** From when each Job was due until it completed, in nanoseconds */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /** From when each Job was actually submitted until it completed, in nanoseconds */
+    private final LatencyHistogram serviceLatency = new LatencyHistogram();
+
+    /** The corrected latencies of the Jobs completed since the last call to {@link #takeIntervalLatency()} */
+    private final IntervalLatency intervalLatency = new IntervalLatency();
+
+    /** The high bits of every Job id, random so ids from different runs do not collide */
+    private final long idPrefix = UUID.randomUUID().getMostSignificantBits();
+
+    /** The low bits of the next Job id.  A counter, as a random UUID for every Job would cap the rate */
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /** The furthest behind schedule a Job has been submitted, in nanoseconds */
+    private final AtomicLong maxLagInNanos = new AtomicLong();
+
+    /**
+     * @param service the service to load
+     * @param jobsPerSecond the rate to submit Jobs at
+     */
+    public LoadGenerator(@Nonnull JobExecutionService service, double jobsPerSecond) {
+        if (!(jobsPerSecond > 0)) {
+            throw new IllegalArgumentException("jobsPerSecond must be positive");
+        }
+        this.service = service;
+        this.intervalInNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / jobsPerSecond));
+    }
+
+    /**
+     * Submits Jobs on the calling thread for the given time, returning once the last one has been submitted.  Jobs
+     * may still be completing after that.
+     *
+     * @param durationInMillis how long to submit Jobs for
+     */
+    public void run(long durationInMillis) {
+        long start = System.nanoTime();
+        long count = TimeUnit.MILLISECONDS.toNanos(durationInMillis) / intervalInNanos;
+        for (long i = 0; i < count; i++) {
+            long due = start + i * intervalInNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            submit(due);
+        }
+    }
+
+    private void submit(long due) {
+        long submittedAt = System.nanoTime();
+        long lag = submittedAt - due;
+        if (lag > maxLagInNanos.get()) {
+            maxLagInNanos.set(lag);
+        }
+        JobResult result;
+        try {
+            result = service.submit(new LoadJob(new UUID(idPrefix, nextId.getAndIncrement())));
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            return;
+        }
+        submitted.increment();
+        result.onComplete(done -> {
+            long now = System.nanoTime();
+            latency.record(now - due);
+            serviceLatency.record(now - submittedAt);
+            intervalLatency.record(now - due);
+            if (done.getStatus() != JobExecutionStatus.SUCCESS) {
+                failed.increment();
+            }
+            completed.increment();
+        });
+    }
+
+    /**
+     * Waits for every Job submitted to complete
+     *
+     * @param timeoutInMillis the longest to wait
+     * @return true if they all completed in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeoutInMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+        while (completed.sum() < submitted.sum()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of Jobs the service accepted
+     */
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    /**
+     * @return the number of Jobs that have completed, whether they succeeded or not
+     */
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * @return the number of Jobs that completed without succeeding
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of Jobs the service refused with a <code>RejectedExecutionException</code>
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return how far behind schedule the most overdue Job was submitted, in nanoseconds.  A large value means the
+     * service pushed back, or the generator could not keep up with the rate
+     */
+    public long getMaxLagInNanos() {
+        return maxLagInNanos.get();
+    }
+
+    /**
+     * @return the time in nanoseconds from when each Job was due until it completed, corrected for coordinated
+     * omission
+     */
+    @Nonnull
+    public LatencyHistogram getLatency() {
+        return latency.copy();
+    }
+
+    /**
+     * @return the time in nanoseconds from when each Job was actually submitted until it completed
+     */
+    @Nonnull
+    public LatencyHistogram getServiceLatency() {
+        return serviceLatency.copy();
+    }
+
+    /**
+     * @return the corrected latencies of the Jobs that have completed since this was last called
+     */
+    @Nonnull
+    public LatencyHistogram takeIntervalLatency() {
+        return intervalLatency.take();
+    }
+
+    private static final class LoadJob implements Job {
+
+        private final UUID id;
+
+        private LoadJob(UUID id) {
+            this.id = id;
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.csea.load;
+
+import org.csea.job.BatchProcessor;
+import org.csea.job.Job;
+import org.csea.job.JobExecutionStatus;
+import org.csea.job.JobResult;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A <code>BatchProcessor</code> that stands in for a real one under load: each call takes a latency drawn from a
+ * distribution, plus a fixed cost per Job, and each Job fails at random at a given rate
+ */
+public class SyntheticBatchProcessor implements BatchProcessor {
+
+    static final String FAILED_MESSAGE = "Synthetic failure";
+
+    private final LatencyDistribution batchLatency;
+
+    private final long perJobLatencyInNanos;
+
+    private final double failureRate;
+
+    /**
+     * @param batchLatency the latency of each call, whatever the size of the batch
+     * @param perJobLatencyInMicros the latency each Job in the batch adds to the call
+     * @param failureRate the chance of each Job failing, between 0 and 1
+     */
+    public SyntheticBatchProcessor(@Nonnull LatencyDistribution batchLatency, long perJobLatencyInMicros,
+                                   double failureRate) {
+        if (perJobLatencyInMicros < 0) {
+            throw new IllegalArgumentException("perJobLatencyInMicros cannot be negative");
+        }
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failureRate must be between 0 and 1");
+        }
+        this.batchLatency = batchLatency;
+        this.perJobLatencyInNanos = perJobLatencyInMicros * 1000;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public List<JobResult> process(List<Job> jobs) {
+        long latency = batchLatency.nextNanos() + perJobLatencyInNanos * jobs.size();
+        long deadline = System.nanoTime() + latency;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<JobResult> results = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            results.add(failureRate > 0 && random.nextDouble() < failureRate
+                    ? new JobResult(job.getId(), JobExecutionStatus.FAIL, FAILED_MESSAGE)
+                    : new JobResult(job.getId(), JobExecutionStatus.SUCCESS));
+        }
+        return results;
+    }
+}
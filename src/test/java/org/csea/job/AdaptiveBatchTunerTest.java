@@ -0,0 +1,123 @@
+package org.csea.job;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+
+public class AdaptiveBatchTunerTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testTargetLatencyGrowsAndHalves() {
+        AdaptiveBatchTuner tuner = new AdaptiveBatchTuner(AdaptiveBatching.targetLatency(10, 330, 1, 50, 100), 100, 20);
+        Assertions.assertEquals(100, tuner.getBatchSize());
+        Assertions.assertEquals(20, tuner.getMaxDelayInMillis());
+
+        // full batches well within the target grow additively, and the delay takes up the rest of the target
+        tuner.onBatchProcessed(100, true, 40 * MILLIS);
+        Assertions.assertEquals(110, tuner.getBatchSize());
+        Assertions.assertEquals(50, tuner.getMaxDelayInMillis());
+        tuner.onBatchProcessed(110, true, 40 * MILLIS);
+        Assertions.assertEquals(120, tuner.getBatchSize());
+
+        // partial batches give no reason to grow
+        tuner.onBatchProcessed(30, false, 40 * MILLIS);
+        Assertions.assertEquals(120, tuner.getBatchSize());
+
+        // a batch over the target halves the size and shrinks the delay
+        tuner.onBatchProcessed(120, true, 190 * MILLIS);
+        Assertions.assertEquals(60, tuner.getBatchSize());
+        Assertions.assertTrue(tuner.getMaxDelayInMillis() < 50);
+
+        for (int i = 0; i < 10; i++) {
+            tuner.onBatchProcessed(60, true, 500 * MILLIS);
+        }
+        Assertions.assertEquals(10, tuner.getBatchSize());
+        Assertions.assertEquals(1, tuner.getMaxDelayInMillis());
+    }
+
+    @Test
+    public void testMaxThroughputClimbsAndReverses() {
+        AdaptiveBatchTuner tuner = new AdaptiveBatchTuner(AdaptiveBatching.maxThroughput(1, 65, 1, 40), 10, 5);
+        Assertions.assertEquals(40, tuner.getMaxDelayInMillis());
+
+        // each job costs a fixed amount, plus a fixed overhead per batch, so bigger batches keep paying off
+        for (int window = 0; window < 3; window++) {
+            int size = tuner.getBatchSize();
+            for (int i = 0; i < 8; i++) {
+                tuner.onBatchProcessed(size, true, (10 + size) * MILLIS);
+            }
+        }
+        Assertions.assertEquals(16, tuner.getBatchSize());
+
+        // throughput drops off, so the next move is back down
+        int size = tuner.getBatchSize();
+        for (int i = 0; i < 8; i++) {
+            tuner.onBatchProcessed(size, true, 100 * size * MILLIS);
+        }
+        Assertions.assertEquals(14, tuner.getBatchSize());
+    }
+
+    @Test
+    public void testServiceExposesTunedValues() {
+        BatchProcessor successProcessor = jobs -> jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        JobExecutionService service = JobExecutionService.builder(500, successProcessor)
+                .maxDelayInMillis(5)
+                .adaptiveBatching(AdaptiveBatching.targetLatency(2, 100, 10, 200, 1000))
+                .build();
+        Assertions.assertEquals(100, service.getBatchSize());
+        Assertions.assertEquals(10, service.getMaxDelayInMillis());
+        service.shutdown();
+
+        JobExecutionService fixedService = new JobExecutionService(7, 70, successProcessor);
+        Assertions.assertEquals(7, fixedService.getBatchSize());
+        Assertions.assertEquals(70, fixedService.getMaxDelayInMillis());
+        fixedService.shutdown();
+    }
+
+    @Test
+    public void testShrinkingBatchSizeSendsPendingJobs() throws InterruptedException {
+        // each batch takes 50ms against a 10ms target, so the first one halves the batch size from 8 to 4
+        AsyncBatchProcessor slowProcessor = jobs -> {
+            List<JobResult> results = jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+            return CompletableFuture.supplyAsync(() -> results,
+                    CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+        };
+        JobExecutionService service = JobExecutionService.asyncBuilder(8, slowProcessor)
+                .adaptiveBatching(AdaptiveBatching.targetLatency(2, 8, 1000, 1000, 10))
+                .build();
+        for (int i = 0; i < 8; i++) {
+            service.submit(new TestJob());
+        }
+        List<JobResult> waiting = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            waiting.add(service.submit(new TestJob()));
+        }
+
+        // the five jobs left pending fill a batch of the new size, so four go without waiting out the 1s delay
+        for (JobResult result : waiting.subList(0, 4)) {
+            Assertions.assertTrue(result.await(500));
+        }
+        // the batch of four may itself have finished by now and halved the size again
+        Assertions.assertTrue(service.getBatchSize() <= 4);
+        Assertions.assertEquals(JobExecutionStatus.PENDING, waiting.get(4).getStatus());
+        service.shutdown();
+    }
+
+    private static class TestJob implements Job {
+
+        private final UUID id = UUID.randomUUID();
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+    }
+}
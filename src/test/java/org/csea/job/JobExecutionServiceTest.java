@@ -1,11 +1,37 @@
 package org.csea.job;
 
+import org.csea.job.journal.JobJournal;
+import org.csea.job.metrics.LatencyHistogram;
+import org.csea.job.metrics.MetricsSnapshot;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.mockito.Mockito.*;
 
@@ -238,13 +264,855 @@ public class JobExecutionServiceTest {
         verifyNoMoreInteractions(mockedBatchProcessor);
     }
 
+    @Test
+    public void testMaxInFlightBatches() throws InterruptedException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+        BatchProcessor slowProcessor = jobs -> {
+            maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        };
+
+        JobExecutionService service = JobExecutionService.builder(1, slowProcessor)
+                .maxInFlightBatches(3)
+                .build();
+        List<JobResult> jobResults = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            jobResults.add(service.submit(new TestJob()));
+        }
+        service.shutdown();
+
+        for (JobResult jobResult : jobResults) {
+            Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult.getStatus());
+        }
+        Assertions.assertTrue(maxObserved.get() > 1, "batches should overlap");
+        Assertions.assertTrue(maxObserved.get() <= 3, "no more than three batches may be in flight");
+    }
+
+    @Test
+    public void testAsyncBatchProcessor() throws InterruptedException {
+        List<CompletableFuture<List<JobResult>>> outstanding = new CopyOnWriteArrayList<>();
+        List<List<Job>> batches = new CopyOnWriteArrayList<>();
+        AsyncBatchProcessor asyncProcessor = jobs -> {
+            CompletableFuture<List<JobResult>> future = new CompletableFuture<>();
+            batches.add(jobs);
+            outstanding.add(future);
+            return future;
+        };
+
+        JobExecutionService service = JobExecutionService.asyncBuilder(1, asyncProcessor)
+                .maxInFlightBatches(2)
+                .build();
+        TestJob testJob1 = new TestJob();
+        TestJob testJob2 = new TestJob();
+        JobResult jobResult1 = service.submit(testJob1);
+        JobResult jobResult2 = service.submit(testJob2);
+
+        int counter = 0;
+        while (outstanding.size() < 2 && counter++ < 40) {
+            Thread.sleep(50);
+        }
+        // both batches were handed over without waiting for the first to complete
+        Assertions.assertEquals(2, outstanding.size());
+        Assertions.assertEquals(JobExecutionStatus.RUNNING, jobResult1.getStatus());
+        Assertions.assertEquals(JobExecutionStatus.RUNNING, jobResult2.getStatus());
+
+        outstanding.get(1).complete(List.of(new JobResult(batches.get(1).get(0).getId(), JobExecutionStatus.SUCCESS)));
+        outstanding.get(0).complete(List.of(new JobResult(batches.get(0).get(0).getId(), JobExecutionStatus.FAIL)));
+        service.shutdown();
+
+        Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult1.getStatus());
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult2.getStatus());
+    }
+
+    @Test
+    public void testPartialBatchFlushedAfterMaxDelay() throws InterruptedException {
+        TestJob testJob = new TestJob();
+
+        BatchProcessor mockedBatchProcessor = mock(BatchProcessor.class);
+        when(mockedBatchProcessor.process(anyList())).thenReturn(Arrays.asList(new JobResult(testJob.getId(), JobExecutionStatus.SUCCESS)));
+
+        JobExecutionService service = new JobExecutionService(10, 100, mockedBatchProcessor);
+        // an idle period longer than maxDelayInMillis must not make the next job wait any longer
+        Thread.sleep(250);
+        long start = System.nanoTime();
+        JobResult jobResult = service.submit(testJob);
+        Assertions.assertTrue(jobResult.await(2000));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult.getStatus());
+        Assertions.assertTrue(elapsedMillis >= 100, "flushed after " + elapsedMillis + "ms");
+        Assertions.assertTrue(elapsedMillis < 500, "flushed after " + elapsedMillis + "ms");
+        verify(mockedBatchProcessor).process(any());
+        verifyNoMoreInteractions(mockedBatchProcessor);
+        service.shutdown();
+    }
+
+    @Test
+    public void testSubmitAllSendsBackToBackFullBatches() throws InterruptedException {
+        List<TestJob> testJobs = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            testJobs.add(new TestJob());
+        }
+        List<List<Job>> batches = new CopyOnWriteArrayList<>();
+        BatchProcessor recordingProcessor = jobs -> {
+            batches.add(jobs);
+            return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        };
+
+        // the delay is long enough that only the final partial batch should have to wait for it
+        JobExecutionService service = new JobExecutionService(3, 10_000, recordingProcessor);
+        List<JobResult> jobResults = service.submitAll(testJobs);
+        Assertions.assertEquals(7, jobResults.size());
+        for (int i = 0; i < 6; i++) {
+            Assertions.assertEquals(testJobs.get(i).getId(), jobResults.get(i).getJobId());
+            Assertions.assertTrue(jobResults.get(i).await(2000));
+            Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResults.get(i).getStatus());
+        }
+        Assertions.assertEquals(JobExecutionStatus.PENDING, jobResults.get(6).getStatus());
+        Assertions.assertEquals(List.of(testJobs.subList(0, 3), testJobs.subList(3, 6)), batches);
+
+        service.shutdown();
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResults.get(6).getStatus());
+        Assertions.assertEquals(List.of(testJobs.get(6)), batches.get(2));
+    }
+
+    @Test
+    public void testFullBatchesSentWhenPendingCountOvershoots() throws InterruptedException {
+        BatchProcessor successProcessor = jobs -> jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        JobExecutionService service = new JobExecutionService(10, 10_000, successProcessor);
+
+        List<JobResult> jobResults = new CopyOnWriteArrayList<>();
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    jobResults.add(service.submit(new TestJob()));
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        // 1000 jobs is exactly 100 full batches, none of which should wait for the delay
+        for (JobResult jobResult : jobResults) {
+            Assertions.assertTrue(jobResult.await(2000));
+        }
+        service.shutdown();
+    }
+
+    @Test
+    public void testResultsOutOfOrderAndMissing() throws InterruptedException {
+        TestJob testJob1 = new TestJob();
+        TestJob testJob2 = new TestJob();
+        TestJob testJob3 = new TestJob();
+
+        BatchProcessor mockedBatchProcessor = mock(BatchProcessor.class);
+        when(mockedBatchProcessor.process(anyList())).thenReturn(Arrays.asList(
+                new JobResult(testJob3.getId(), JobExecutionStatus.FAIL, "Bad things happened"),
+                new JobResult(testJob1.getId(), JobExecutionStatus.SUCCESS),
+                new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS)
+        ));
+
+        JobExecutionService service = new JobExecutionService(3, mockedBatchProcessor);
+        JobResult jobResult1 = service.submit(testJob1);
+        JobResult jobResult2 = service.submit(testJob2);
+        JobResult jobResult3 = service.submit(testJob3);
+        Assertions.assertTrue(jobResult2.await(2000));
+
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult1.getStatus());
+        Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult2.getStatus());
+        Assertions.assertEquals(JobExecutionService.NO_RESULT_MESSAGE, jobResult2.getFailedMessage());
+        Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult3.getStatus());
+        Assertions.assertEquals("Bad things happened", jobResult3.getFailedMessage());
+        verify(mockedBatchProcessor).process(any());
+        verifyNoMoreInteractions(mockedBatchProcessor);
+        service.shutdown();
+    }
+
+    @Test
+    public void testCapacityFailAndRejectPolicies() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        BatchProcessor blockedProcessor = blockingProcessor(release);
+
+        JobExecutionService failService = JobExecutionService.builder(2, blockedProcessor)
+                .capacity(2)
+                .overflowPolicy(OverflowPolicy.FAIL)
+                .build();
+        JobExecutionService rejectService = JobExecutionService.builder(2, blockedProcessor)
+                .capacity(2)
+                .overflowPolicy(OverflowPolicy.REJECT)
+                .build();
+        for (JobExecutionService service : List.of(failService, rejectService)) {
+            // the first batch is taken by the processor, which then holds the scheduler so the next two stay pending
+            List<JobResult> running = service.submitAll(List.of(new TestJob(), new TestJob()));
+            waitForStatus(JobExecutionStatus.PENDING, running.toArray(new JobResult[0]));
+            service.submit(new TestJob());
+            service.submit(new TestJob());
+            Assertions.assertTrue(service.trySubmit(new TestJob()).isEmpty());
+        }
+
+        JobResult failed = failService.submit(new TestJob());
+        Assertions.assertEquals(JobExecutionStatus.FAIL, failed.getStatus());
+        Assertions.assertEquals(JobExecutionService.AT_CAPACITY_MESSAGE, failed.getFailedMessage());
+        Assertions.assertThrows(RejectedExecutionException.class, () -> rejectService.submit(new TestJob()));
+
+        release.countDown();
+        failService.shutdown();
+        rejectService.shutdown();
+    }
+
+    @Test
+    public void testCapacityBlockWithTimeoutPolicy() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        JobExecutionService service = JobExecutionService.builder(1, blockingProcessor(release))
+                .capacity(1)
+                .overflowPolicy(OverflowPolicy.BLOCK_WITH_TIMEOUT)
+                .overflowTimeoutInMillis(50)
+                .build();
+        JobResult running = service.submit(new TestJob());
+        waitForStatus(JobExecutionStatus.PENDING, running);
+        JobResult pending = service.submit(new TestJob());
+
+        long start = System.nanoTime();
+        JobResult timedOut = service.submit(new TestJob());
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        Assertions.assertEquals(JobExecutionStatus.FAIL, timedOut.getStatus());
+
+        release.countDown();
+        service.shutdown();
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, running.getStatus());
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, pending.getStatus());
+    }
+
+    @Test
+    public void testCapacityDropOldestPolicy() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor();
+        JobExecutionService service = JobExecutionService.builder(2, blockingProcessor(release))
+                .dispatchExecutor(dispatchExecutor)
+                .capacity(2)
+                .overflowPolicy(OverflowPolicy.DROP_OLDEST)
+                .build();
+        List<JobResult> running = service.submitAll(List.of(new TestJob(), new TestJob()));
+        waitForStatus(JobExecutionStatus.PENDING, running.toArray(new JobResult[0]));
+
+        JobResult oldest = service.submit(new TestJob());
+        JobResult middle = service.submit(new TestJob());
+        JobResult newest = service.submit(new TestJob());
+        Assertions.assertTrue(oldest.await(2000));
+        Assertions.assertEquals(JobExecutionStatus.FAIL, oldest.getStatus());
+        Assertions.assertEquals(JobExecutionService.DROPPED_MESSAGE, oldest.getFailedMessage());
+
+        release.countDown();
+        service.shutdown();
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, middle.getStatus());
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, newest.getStatus());
+        dispatchExecutor.shutdown();
+    }
+
+    @Test
+    public void testDeduplication() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger processedJobs = new AtomicInteger();
+        BatchProcessor blocking = blockingProcessor(release);
+        JobExecutionService service = JobExecutionService.builder(10, jobs -> {
+                    processedJobs.addAndGet(jobs.size());
+                    return blocking.process(jobs);
+                })
+                .maxDelayInMillis(10)
+                .capacity(2)
+                .overflowPolicy(OverflowPolicy.FAIL)
+                .deduplicate(100, 60_000)
+                .build();
+        TestJob first = new TestJob();
+        TestJob retry = new TestJob();
+        retry.id = first.getId();
+        TestJob second = new TestJob();
+
+        JobResult firstResult = service.submit(first);
+        Assertions.assertSame(firstResult, service.submit(retry));
+        // duplicates take no pending slot, so the service at a capacity of 2 still has room for the second job
+        List<JobResult> jobResults = service.submitAll(List.of(retry, second, second));
+        Assertions.assertSame(firstResult, jobResults.get(0));
+        Assertions.assertSame(jobResults.get(1), jobResults.get(2));
+        Assertions.assertNotEquals(JobExecutionStatus.FAIL, jobResults.get(1).getStatus());
+        Assertions.assertSame(firstResult, service.getResult(first.getId()).orElseThrow());
+        Assertions.assertTrue(service.getResult(UUID.randomUUID()).isEmpty());
+
+        release.countDown();
+        Assertions.assertTrue(firstResult.await(2000));
+        Assertions.assertTrue(jobResults.get(1).await(2000));
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, firstResult.getStatus());
+
+        // a finished job is answered from the recent results without being processed again
+        JobResult resubmitted = service.submit(retry);
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, resubmitted.getStatus());
+        Assertions.assertSame(firstResult, service.getResult(first.getId()).orElseThrow());
+        service.shutdown();
+        Assertions.assertEquals(2, processedJobs.get());
+    }
+
+    @Test
+    public void testNullResultsFailEachJob() throws InterruptedException {
+        JobExecutionService service = new JobExecutionService(2, 10, jobs -> null);
+        List<JobResult> jobResults = service.submitAll(List.of(new TestJob(), new TestJob()));
+        for (JobResult jobResult : jobResults) {
+            Assertions.assertTrue(jobResult.await(2000));
+            Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult.getStatus());
+            Assertions.assertEquals(JobExecutionService.NO_RESULT_MESSAGE, jobResult.getFailedMessage());
+        }
+        service.shutdown();
+    }
+
+    @Test
+    public void testNullResultElementsAreIgnored() throws InterruptedException {
+        TestJob testJob1 = new TestJob();
+        TestJob testJob2 = new TestJob();
+        JobResult noStatus = new JobResult(testJob2.getId(), null);
+        JobExecutionService service = new JobExecutionService(2, 10, jobs -> Arrays.asList(null, noStatus,
+                new JobResult(testJob1.getId(), JobExecutionStatus.SUCCESS)));
+        JobResult jobResult1 = service.submit(testJob1);
+        JobResult jobResult2 = service.submit(testJob2);
+        Assertions.assertTrue(jobResult1.await(2000));
+        Assertions.assertTrue(jobResult2.await(2000));
+
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult1.getStatus());
+        Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult2.getStatus());
+        Assertions.assertEquals(JobExecutionService.NO_RESULT_MESSAGE, jobResult2.getFailedMessage());
+        service.shutdown();
+    }
+
+    @Test
+    public void testUnreadableResultsFailEachJob() throws InterruptedException {
+        JobExecutionService service = new JobExecutionService(1, 10, jobs -> new AbstractList<>() {
+            @Override
+            public JobResult get(int index) {
+                throw new IllegalStateException("unreadable");
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        });
+        JobResult jobResult = service.submit(new TestJob());
+        Assertions.assertTrue(jobResult.await(2000));
+        Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult.getStatus());
+        Assertions.assertTrue(jobResult.getFailedMessage().startsWith(JobExecutionService.PROCESSOR_FAILED_MESSAGE));
+        service.shutdown();
+    }
+
+    @Test
+    public void testProcessorExceptionFailsEachJob() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        JobExecutionService service = new JobExecutionService(2, 10, jobs -> {
+            if (calls.getAndIncrement() == 0) {
+                throw new IllegalStateException("processor down");
+            }
+            return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        });
+        List<JobResult> failed = service.submitAll(List.of(new TestJob(), new TestJob()));
+        for (JobResult jobResult : failed) {
+            Assertions.assertTrue(jobResult.await(2000));
+            Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult.getStatus());
+            Assertions.assertTrue(jobResult.getFailedMessage().startsWith(JobExecutionService.PROCESSOR_FAILED_MESSAGE));
+            Assertions.assertTrue(jobResult.getFailedMessage().contains("processor down"));
+        }
+
+        // the service carries on with the next batch
+        JobResult next = service.submit(new TestJob());
+        Assertions.assertTrue(next.await(2000));
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, next.getStatus());
+        service.shutdown();
+    }
+
+    @Test
+    public void testUrgentClassFlushedEarlyAheadOfBackfill() throws InterruptedException {
+        List<List<UUID>> batches = new CopyOnWriteArrayList<>();
+        JobExecutionService service = JobExecutionService.builder(3, jobs -> {
+                    batches.add(jobs.stream().map(Job::getId).toList());
+                    return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+                })
+                .priorityClasses(100, 5000)
+                .build();
+        TestJob backfill1 = new TestJob(1);
+        TestJob backfill2 = new TestJob(1);
+        TestJob backfill3 = new TestJob(1);
+        TestJob urgent = new TestJob(0);
+        service.submitAll(List.of(backfill1, backfill2));
+        // the flush timer is armed for the backfill's deadline, the urgent job has to bring it forward
+        Thread.sleep(50);
+        long start = System.nanoTime();
+        JobResult urgentResult = service.submit(urgent);
+        Assertions.assertTrue(urgentResult.await(2000));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assertions.assertTrue(elapsedMillis < 1000, "flushed after " + elapsedMillis + "ms");
+        // filled earliest deadline first, with the older backfill after the urgent job
+        Assertions.assertEquals(List.of(List.of(urgent.getId(), backfill1.getId(), backfill2.getId())), batches);
+
+        JobResult backfillResult = service.submit(backfill3);
+        Thread.sleep(200);
+        Assertions.assertEquals(JobExecutionStatus.PENDING, backfillResult.getStatus());
+        service.shutdown();
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, backfillResult.getStatus());
+    }
+
+    @Test
+    public void testBatchesClosedByWeight() throws InterruptedException {
+        List<List<UUID>> batches = new CopyOnWriteArrayList<>();
+        JobExecutionService service = JobExecutionService.builder(100, jobs -> {
+                    batches.add(jobs.stream().map(Job::getId).toList());
+                    return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+                })
+                .maxDelayInMillis(5000)
+                .maxBatchWeight(10)
+                .build();
+        TestJob small1 = new TestJob(4L);
+        TestJob small2 = new TestJob(4L);
+        TestJob small3 = new TestJob(4L);
+        TestJob oversized = new TestJob(20L);
+        TestJob tiny = new TestJob(1L);
+        List<JobResult> results = service.submitAll(List.of(small1, small2, small3, oversized, tiny));
+        int counter = 0;
+        while (batches.size() < 3 && counter++ < 40) {
+            Thread.sleep(50);
+        }
+        // full by weight, so sent without waiting for the delay, and the oversized job goes on its own
+        Assertions.assertEquals(List.of(List.of(small1.getId(), small2.getId()), List.of(small3.getId()),
+                List.of(oversized.getId())), batches);
+        Assertions.assertEquals(JobExecutionStatus.PENDING, results.get(4).getStatus());
+        service.shutdown();
+        Assertions.assertEquals(List.of(tiny.getId()), batches.get(3));
+    }
+
+    @Test
+    public void testWeightLimitWithPriorityClasses() throws InterruptedException {
+        List<Long> batchWeights = new CopyOnWriteArrayList<>();
+        JobExecutionService service = JobExecutionService.builder(100, jobs -> {
+                    batchWeights.add(jobs.stream().mapToLong(Job::getWeight).sum());
+                    return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+                })
+                .priorityClasses(5, 5000)
+                .maxBatchWeight(10)
+                .build();
+        // urgent jobs keep arriving while batches are taken, so the earliest job often changes class mid-batch
+        Thread urgentSubmitter = new Thread(() -> {
+            for (int i = 0; i < 500; i++) {
+                service.submit(new TestJob(0, 1 + i % 3));
+            }
+        });
+        urgentSubmitter.start();
+        List<JobResult> results = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            results.add(service.submit(new TestJob(1, 1 + i % 5)));
+        }
+        urgentSubmitter.join();
+        for (JobResult result : results) {
+            Assertions.assertTrue(result.await(10_000));
+        }
+        int counter = 0;
+        while (batchWeights.stream().mapToLong(Long::longValue).sum() < 500 * 3 + 500 * 2 && counter++ < 100) {
+            Thread.sleep(50);
+        }
+        for (long weight : batchWeights) {
+            Assertions.assertTrue(weight <= 10, "batch of weight " + weight);
+        }
+
+        // with the weight of every job taken accounted for, a light job waits for its delay rather than being sent
+        JobResult light = service.submit(new TestJob(1, 1L));
+        Thread.sleep(200);
+        Assertions.assertEquals(JobExecutionStatus.PENDING, light.getStatus());
+        service.shutdown();
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, light.getStatus());
+    }
+
+    @Test
+    public void testSteadyStateAllocation() throws InterruptedException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        int batchSize = 100;
+        int jobCount = 20_000;
+        // the jobs and their results are made up front, so the processor allocates nothing of its own
+        Map<UUID, JobResult> successes = new HashMap<>();
+        List<TestJob> warmUpJobs = new ArrayList<>();
+        List<TestJob> measuredJobs = new ArrayList<>();
+        for (int i = 0; i < jobCount * 2; i++) {
+            TestJob job = new TestJob();
+            successes.put(job.getId(), new JobResult(job.getId(), JobExecutionStatus.SUCCESS));
+            (i < jobCount ? warmUpJobs : measuredJobs).add(job);
+        }
+        List<JobResult> processed = new ArrayList<>(batchSize);
+        AtomicReference<Thread> schedulerThread = new AtomicReference<>();
+        // a single batch in flight is processed on the scheduler thread
+        JobExecutionService service = new JobExecutionService(batchSize, 60_000, jobs -> {
+            schedulerThread.set(Thread.currentThread());
+            processed.clear();
+            for (int i = 0; i < jobs.size(); i++) {
+                processed.add(successes.get(jobs.get(i).getId()));
+            }
+            return processed;
+        });
+
+        submitAndAwait(service, warmUpJobs);
+        long schedulerId = schedulerThread.get().threadId();
+        long submitterId = Thread.currentThread().threadId();
+        long schedulerBefore = threads.getThreadAllocatedBytes(schedulerId);
+        long submitterBefore = threads.getThreadAllocatedBytes(submitterId);
+        List<JobResult> results = submitAndAwait(service, measuredJobs);
+        long submitterBytes = threads.getThreadAllocatedBytes(submitterId) - submitterBefore;
+        long schedulerBytes = threads.getThreadAllocatedBytes(schedulerId) - schedulerBefore;
+        service.shutdown();
+
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, results.get(jobCount - 1).getStatus());
+        // a JobResult and a pending record per job, plus the results list and the odd scheduler wake-up
+        Assertions.assertTrue(submitterBytes / jobCount < 128, submitterBytes / jobCount + " bytes per submit");
+        // batch buffers are reused, so dispatching costs a few objects per batch and the processor's job list
+        Assertions.assertTrue(schedulerBytes / jobCount < 8, schedulerBytes / jobCount + " bytes per dispatched job");
+    }
+
+    private static List<JobResult> submitAndAwait(JobExecutionService service, List<TestJob> jobs)
+            throws InterruptedException {
+        List<JobResult> results = new ArrayList<>(jobs.size());
+        for (TestJob job : jobs) {
+            results.add(service.submit(job));
+        }
+        for (JobResult result : results) {
+            Assertions.assertTrue(result.await(10_000));
+        }
+        return results;
+    }
+
+    @Test
+    public void testStreamingResultsCompleteEachJobAsItFinishes() throws InterruptedException {
+        TestJob fast = new TestJob();
+        TestJob slow = new TestJob();
+        TestJob missing = new TestJob();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService processorThreads = Executors.newSingleThreadExecutor();
+        JobExecutionService service = JobExecutionService.streamingBuilder(3, (jobs, sink) -> {
+                    List<Job> batch = List.copyOf(jobs);
+                    return CompletableFuture.runAsync(() -> {
+                        sink.accept(new JobResult(batch.get(0).getId(), JobExecutionStatus.SUCCESS));
+                        try {
+                            release.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        sink.accept(new JobResult(batch.get(1).getId(), JobExecutionStatus.FAIL, "slow failed"));
+                        // duplicates and results for unknown jobs are ignored
+                        sink.accept(new JobResult(batch.get(1).getId(), JobExecutionStatus.SUCCESS));
+                        sink.accept(new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS));
+                    }, processorThreads);
+                })
+                .build();
+        List<JobResult> results = service.submitAll(List.of(fast, slow, missing));
+
+        // completed while the rest of its batch is still being processed
+        Assertions.assertTrue(results.get(0).await(2000));
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, results.get(0).getStatus());
+        Assertions.assertEquals(JobExecutionStatus.RUNNING, results.get(1).getStatus());
+        Assertions.assertEquals(JobExecutionStatus.RUNNING, results.get(2).getStatus());
+
+        Thread.sleep(200);
+        release.countDown();
+        Assertions.assertTrue(results.get(2).await(2000));
+        Assertions.assertEquals(JobExecutionStatus.FAIL, results.get(1).getStatus());
+        Assertions.assertEquals("slow failed", results.get(1).getFailedMessage());
+        Assertions.assertEquals(JobExecutionStatus.FAIL, results.get(2).getStatus());
+        Assertions.assertEquals(JobExecutionService.NO_RESULT_MESSAGE, results.get(2).getFailedMessage());
+        // each streamed job's running time is its own, so the fast one does not wait out the batch.  The rest are
+        // recorded once the batch has completed its jobs, so may not be yet
+        LatencyHistogram runningTime = service.getMetrics().getRunningTime();
+        for (int i = 0; i < 200 && runningTime.getCount() < 3; i++) {
+            Thread.sleep(10);
+            runningTime = service.getMetrics().getRunningTime();
+        }
+        Assertions.assertEquals(3, runningTime.getCount());
+        Assertions.assertTrue(runningTime.getPercentile(30) < TimeUnit.MILLISECONDS.toNanos(100));
+        Assertions.assertTrue(runningTime.getMax() >= TimeUnit.MILLISECONDS.toNanos(200));
+        service.shutdown();
+        processorThreads.shutdown();
+    }
+
+    @Test
+    public void testRetriedJobsAreBatchedWithFreshWork() throws InterruptedException {
+        TestJob flaky = new TestJob();
+        TestJob fresh = new TestJob();
+        List<List<UUID>> batches = new CopyOnWriteArrayList<>();
+        JobExecutionService service = JobExecutionService.builder(2, jobs -> {
+                    batches.add(jobs.stream().map(Job::getId).toList());
+                    return jobs.stream().map(job -> batches.size() == 1
+                            ? new JobResult(job.getId(), JobExecutionStatus.FAIL, "busy")
+                            : new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+                })
+                .maxDelayInMillis(200)
+                .retryPolicy(RetryPolicy.exponentialBackoff(3, 10, 1000))
+                .build();
+        JobResult flakyResult = service.submit(flaky);
+        int counter = 0;
+        while (batches.isEmpty() && counter++ < 40) {
+            Thread.sleep(50);
+        }
+        waitForStatus(JobExecutionStatus.RUNNING, flakyResult);
+        // back to PENDING for its backoff, then waiting for the batch to fill like any other job
+        Assertions.assertEquals(JobExecutionStatus.PENDING, flakyResult.getStatus());
+        JobResult freshResult = service.submit(fresh);
+
+        Assertions.assertTrue(flakyResult.await(2000));
+        Assertions.assertTrue(freshResult.await(2000));
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, flakyResult.getStatus());
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, freshResult.getStatus());
+        Assertions.assertEquals(2, batches.size());
+        Assertions.assertEquals(Set.of(flaky.getId(), fresh.getId()), Set.copyOf(batches.get(1)));
+        Assertions.assertEquals(1, service.getMetrics().getRetriedJobs());
+        service.shutdown();
+    }
+
+    @Test
+    public void testRetryLimitsAndTerminalFailures() throws InterruptedException {
+        TestJob transientFailure = new TestJob();
+        TestJob terminalFailure = new TestJob();
+        Map<UUID, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        JobExecutionService service = JobExecutionService.builder(2, jobs -> jobs.stream().map(job -> {
+                    attempts.computeIfAbsent(job.getId(), id -> new AtomicInteger()).incrementAndGet();
+                    String message = job.getId().equals(terminalFailure.getId()) ? "terminal" : "transient";
+                    return new JobResult(job.getId(), JobExecutionStatus.FAIL, message);
+                }).toList())
+                .maxDelayInMillis(10)
+                .retryPolicy(RetryPolicy.exponentialBackoff(3, 1, 5)
+                        .retryIf(result -> !"terminal".equals(result.getFailedMessage())))
+                .build();
+        List<JobResult> jobResults = service.submitAll(List.of(transientFailure, terminalFailure));
+        for (JobResult jobResult : jobResults) {
+            Assertions.assertTrue(jobResult.await(2000));
+            Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult.getStatus());
+        }
+        Assertions.assertEquals(3, attempts.get(transientFailure.getId()).get());
+        Assertions.assertEquals(1, attempts.get(terminalFailure.getId()).get());
+        service.shutdown();
+    }
+
+    @Test
+    public void testShutdownSendsWaitingRetries() {
+        AtomicInteger calls = new AtomicInteger();
+        JobExecutionService service = JobExecutionService.builder(1, jobs -> jobs.stream()
+                        .map(job -> new JobResult(job.getId(), calls.getAndIncrement() == 0
+                                ? JobExecutionStatus.FAIL
+                                : JobExecutionStatus.SUCCESS)).toList())
+                .retryPolicy(RetryPolicy.exponentialBackoff(2, 60_000, 60_000))
+                .build();
+        JobResult jobResult = service.submit(new TestJob());
+        service.shutdown();
+        Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult.getStatus());
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testJournalReplaysUnfinishedJobs() throws Exception {
+        Path file = Files.createTempFile("jobs", ".journal");
+        JobSerializer serializer = new JobSerializer() {
+            @Override
+            public byte[] serialize(Job job) {
+                return job.getId().toString().getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public Job deserialize(byte[] bytes) {
+                TestJob job = new TestJob();
+                job.id = UUID.fromString(new String(bytes, StandardCharsets.UTF_8));
+                return job;
+            }
+        };
+        try (JobJournal journal = new JobJournal(file, 4096, serializer)) {
+            // the first batch completes, the second never comes back from the processor
+            CompletableFuture<List<JobResult>> lost = new CompletableFuture<>();
+            AtomicInteger batches = new AtomicInteger();
+            JobExecutionService service = JobExecutionService.asyncBuilder(2, jobs -> batches.getAndIncrement() == 0
+                            ? CompletableFuture.completedFuture(
+                                    jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList())
+                            : lost)
+                    .maxInFlightBatches(2)
+                    .journal(journal)
+                    .build();
+            Assertions.assertTrue(service.getRecoveredResults().isEmpty());
+            List<TestJob> jobs = List.of(new TestJob(), new TestJob(), new TestJob(), new TestJob(), new TestJob());
+            List<JobResult> jobResults = service.submitAll(jobs);
+            waitForStatus(JobExecutionStatus.PENDING, jobResults.get(0), jobResults.get(1), jobResults.get(2));
+
+            // a second journal on the same file sees what the first service would leave behind if the JVM died
+            JobJournal reopened = new JobJournal(file, 4096, serializer);
+            JobExecutionService restarted = JobExecutionService.builder(5,
+                            batch -> batch.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList())
+                    .maxDelayInMillis(10)
+                    .journal(reopened)
+                    .build();
+            List<JobResult> recovered = restarted.getRecoveredResults();
+            Assertions.assertEquals(jobs.subList(2, 5).stream().map(TestJob::getId).toList(),
+                    recovered.stream().map(JobResult::getJobId).toList());
+            for (JobResult jobResult : recovered) {
+                Assertions.assertTrue(jobResult.await(2000));
+                Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult.getStatus());
+            }
+            restarted.shutdown();
+            reopened.close();
+            try (JobJournal afterRestart = new JobJournal(file, 4096, serializer)) {
+                Assertions.assertTrue(afterRestart.recover().isEmpty());
+            }
+
+            lost.completeExceptionally(new IllegalStateException("lost"));
+            service.shutdown();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testJournalCommitFailureFailsTheBatch() throws Exception {
+        Path file = Files.createTempFile("jobs", ".journal");
+        JobSerializer serializer = new JobSerializer() {
+            @Override
+            public byte[] serialize(Job job) {
+                return new byte[0];
+            }
+
+            @Override
+            public Job deserialize(byte[] bytes) {
+                return new TestJob();
+            }
+        };
+        AtomicInteger processed = new AtomicInteger();
+        try (JobJournal journal = new JobJournal(file, 4096, serializer)) {
+            JobExecutionService service = JobExecutionService.builder(5, jobs -> {
+                        processed.addAndGet(jobs.size());
+                        return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+                    })
+                    .maxDelayInMillis(100)
+                    .journal(journal)
+                    .build();
+            JobResult jobResult = service.submit(new TestJob());
+            // recorded but never committed, so the batch must not be sent
+            journal.close();
+
+            Assertions.assertTrue(jobResult.await(2000));
+            Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult.getStatus());
+            Assertions.assertTrue(jobResult.getFailedMessage().startsWith(JobExecutionService.JOURNAL_FAILED_MESSAGE));
+            Assertions.assertEquals(0, processed.get());
+            Assertions.assertThrows(UncheckedIOException.class, service::shutdown);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        BatchProcessor mockedBatchProcessor = mock(BatchProcessor.class);
+        List<MetricsSnapshot> reported = new CopyOnWriteArrayList<>();
+        JobExecutionService service = JobExecutionService.builder(4, mockedBatchProcessor)
+                .maxDelayInMillis(20)
+                .metricsListener(reported::add, 10)
+                .jmxName("testMetrics")
+                .build();
+        TestJob testJob1 = new TestJob();
+        TestJob testJob2 = new TestJob();
+        when(mockedBatchProcessor.process(anyList())).thenReturn(List.of(
+                new JobResult(testJob1.getId(), JobExecutionStatus.SUCCESS),
+                new JobResult(testJob2.getId(), JobExecutionStatus.FAIL)));
+        List<JobResult> jobResults = service.submitAll(List.of(testJob1, testJob2));
+        Assertions.assertEquals(2, service.getMetrics().getQueueDepth());
+        Assertions.assertTrue(jobResults.get(1).await(2000));
+
+        ObjectName name = new ObjectName("org.csea.job:type=JobExecutionService,name=\"testMetrics\"");
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        Assertions.assertEquals(2L, mbeanServer.getAttribute(name, "SubmittedJobs"));
+        service.shutdown();
+        Assertions.assertFalse(mbeanServer.isRegistered(name));
+
+        MetricsSnapshot metrics = service.getMetrics();
+        Assertions.assertEquals(2, metrics.getSubmittedJobs());
+        Assertions.assertEquals(1, metrics.getSucceededJobs());
+        Assertions.assertEquals(1, metrics.getFailedJobs());
+        Assertions.assertEquals(1, metrics.getBatches());
+        Assertions.assertEquals(0.5, metrics.getBatchFillRatio(), 0.001);
+        Assertions.assertEquals(0, metrics.getQueueDepth());
+        Assertions.assertEquals(2, metrics.getPendingTime().getCount());
+        Assertions.assertTrue(metrics.getPendingTime().getPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assertions.assertEquals(2, metrics.getRunningTime().getCount());
+        Assertions.assertEquals(1, metrics.getProcessLatency().getCount());
+        // the final report is made at shutdown
+        Assertions.assertTrue(reported.size() > 1);
+        Assertions.assertEquals(2, reported.get(reported.size() - 1).getSubmittedJobs());
+    }
+
+    private static BatchProcessor blockingProcessor(CountDownLatch release) {
+        return jobs -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        };
+    }
+
+    /**
+     * Waits until none of the results has the given status any more
+     */
+    private static void waitForStatus(JobExecutionStatus leaving, JobResult... jobResults) throws InterruptedException {
+        for (JobResult jobResult : jobResults) {
+            int counter = 0;
+            while (jobResult.getStatus() == leaving && counter++ < 40) {
+                Thread.sleep(50);
+            }
+            Assertions.assertNotEquals(leaving, jobResult.getStatus());
+        }
+    }
+
     private static class TestJob implements Job {
 
         private UUID id = UUID.randomUUID();
 
+        private int priorityClass;
+
+        private long weight = 1;
+
+        private TestJob() {
+        }
+
+        private TestJob(int priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+
+        private TestJob(long weight) {
+            this.weight = weight;
+        }
+
+        private TestJob(int priorityClass, long weight) {
+            this.priorityClass = priorityClass;
+            this.weight = weight;
+        }
+
         @Override
         public UUID getId() {
             return id;
         }
+
+        @Override
+        public int getPriorityClass() {
+            return priorityClass;
+        }
+
+        @Override
+        public long getWeight() {
+            return weight;
+        }
     }
 }
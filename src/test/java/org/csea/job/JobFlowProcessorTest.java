@@ -0,0 +1,205 @@
+package org.csea.job;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+
+public class JobFlowProcessorTest {
+
+    @Test
+    public void testUpstreamDemandFollowsDownstream() throws InterruptedException {
+        JobExecutionService service = JobExecutionService.builder(2, jobs -> jobs.stream()
+                        .map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList())
+                .maxDelayInMillis(10)
+                .build();
+        JobFlowProcessor processor = new JobFlowProcessor(service, 4);
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            jobs.add(new TestJob());
+        }
+        JobPublisher publisher = new JobPublisher(jobs);
+        ResultSubscriber subscriber = new ResultSubscriber();
+        processor.subscribe(subscriber);
+        publisher.subscribe(processor);
+
+        // nothing has been taken downstream, so only the window's worth of jobs is requested and run
+        Thread.sleep(200);
+        Assertions.assertEquals(4, publisher.requested);
+        Assertions.assertTrue(subscriber.results.isEmpty());
+
+        subscriber.subscription.request(3);
+        int counter = 0;
+        while (publisher.requested < 7 && counter++ < 40) {
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(3, subscriber.results.size());
+        Assertions.assertEquals(7, publisher.requested);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assertions.assertTrue(subscriber.completed.await(2, TimeUnit.SECONDS));
+        Assertions.assertEquals(jobs.stream().map(Job::getId).collect(Collectors.toSet()),
+                subscriber.results.stream().map(JobResult::getJobId).collect(Collectors.toSet()));
+        Assertions.assertTrue(subscriber.results.stream().allMatch(result -> result.getStatus() == JobExecutionStatus.SUCCESS));
+        Assertions.assertNull(subscriber.error);
+        service.shutdown();
+    }
+
+    @Test
+    public void testSynchronousPublisherIntoBlockingService() throws InterruptedException {
+        // a single batch in flight runs on the scheduler thread, which must not be the one that submits more jobs
+        JobExecutionService service = JobExecutionService.builder(1, jobs -> jobs.stream()
+                        .map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList())
+                .capacity(1)
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        JobFlowProcessor processor = new JobFlowProcessor(service, 10);
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            jobs.add(new TestJob());
+        }
+        ResultSubscriber subscriber = new ResultSubscriber();
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Thread publishing = new Thread(() -> new JobPublisher(jobs).subscribe(processor));
+        publishing.setDaemon(true);
+        publishing.start();
+
+        Assertions.assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(50, subscriber.results.size());
+        Assertions.assertNull(subscriber.error);
+        service.shutdown();
+    }
+
+    @Test
+    public void testCancelAndSecondSubscriber() throws InterruptedException {
+        JobExecutionService service = JobExecutionService.builder(1, jobs -> jobs.stream()
+                        .map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList())
+                .build();
+        JobFlowProcessor processor = new JobFlowProcessor(service, 2);
+        ResultSubscriber subscriber = new ResultSubscriber();
+        processor.subscribe(subscriber);
+
+        ResultSubscriber second = new ResultSubscriber();
+        processor.subscribe(second);
+        Assertions.assertTrue(second.completed.await(2, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IllegalStateException.class, second.error);
+
+        JobPublisher publisher = new JobPublisher(List.of(new TestJob(), new TestJob(), new TestJob()));
+        publisher.subscribe(processor);
+        subscriber.subscription.cancel();
+        // a drain already running on the executor passes the cancellation upstream, so it may not have yet
+        for (int i = 0; i < 200 && !publisher.cancelled; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(publisher.cancelled);
+        service.shutdown();
+    }
+
+    @Test
+    public void testRejectedJobEndsTheStream() throws InterruptedException {
+        JobExecutionService service = new JobExecutionService(1, jobs -> List.of());
+        service.shutdown();
+        JobFlowProcessor processor = new JobFlowProcessor(service, 2);
+        ResultSubscriber subscriber = new ResultSubscriber();
+        processor.subscribe(subscriber);
+        JobPublisher publisher = new JobPublisher(List.of(new TestJob()));
+        publisher.subscribe(processor);
+
+        Assertions.assertTrue(subscriber.completed.await(2, TimeUnit.SECONDS));
+        Assertions.assertNotNull(subscriber.error);
+        Assertions.assertTrue(publisher.cancelled);
+    }
+
+    /**
+     * Publishes a fixed list of jobs, synchronously as they are requested
+     */
+    private static class JobPublisher implements Flow.Publisher<Job>, Flow.Subscription {
+        private final List<Job> jobs;
+        private Flow.Subscriber<? super Job> subscriber;
+        private volatile long requested;
+        private volatile boolean cancelled;
+        private int next;
+        private long delivered;
+        private boolean emitting;
+
+        private JobPublisher(List<Job> jobs) {
+            this.jobs = jobs;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Job> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            requested += n;
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+            while (!cancelled && delivered < requested && next < jobs.size()) {
+                delivered++;
+                subscriber.onNext(jobs.get(next++));
+            }
+            emitting = false;
+            if (!cancelled && next == jobs.size()) {
+                next++;
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static class ResultSubscriber implements Flow.Subscriber<JobResult> {
+        private final List<JobResult> results = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(JobResult item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    private static class TestJob implements Job {
+
+        private final UUID id = UUID.randomUUID();
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+    }
+}
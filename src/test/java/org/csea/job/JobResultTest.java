@@ -0,0 +1,72 @@
+package org.csea.job;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class JobResultTest {
+
+    @Test
+    public void testAwaitReturnsImmediatelyWhenComplete() throws InterruptedException {
+        JobResult jobResult = new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS);
+        long start = System.nanoTime();
+        Assertions.assertTrue(jobResult.await(5000));
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    @Test
+    public void testAwaitTimesOut() throws InterruptedException {
+        JobResult jobResult = new JobResult(UUID.randomUUID());
+        Assertions.assertFalse(jobResult.await(50));
+        Assertions.assertEquals(JobExecutionStatus.PENDING, jobResult.getStatus());
+    }
+
+    @Test
+    public void testAwaitWokenByCopy() throws InterruptedException {
+        UUID jobId = UUID.randomUUID();
+        JobResult jobResult = new JobResult(jobId);
+        Thread completer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            jobResult.copy(new JobResult(jobId, JobExecutionStatus.FAIL, "Bad things happened"));
+        });
+        completer.start();
+
+        Assertions.assertTrue(jobResult.await(5000));
+        Assertions.assertEquals(JobExecutionStatus.FAIL, jobResult.getStatus());
+        Assertions.assertEquals("Bad things happened", jobResult.getFailedMessage());
+        completer.join();
+    }
+
+    @Test
+    public void testCompletableFutureAndCallbacks() throws Exception {
+        UUID jobId = UUID.randomUUID();
+        JobResult jobResult = new JobResult(jobId);
+        CompletableFuture<JobResult> future = jobResult.toCompletableFuture();
+        AtomicReference<JobResult> beforeCompletion = new AtomicReference<>();
+        jobResult.onComplete(beforeCompletion::set);
+        Assertions.assertFalse(future.isDone());
+
+        jobResult.setStatus(JobExecutionStatus.RUNNING);
+        Assertions.assertFalse(future.isDone());
+        Assertions.assertNull(beforeCompletion.get());
+
+        jobResult.copy(new JobResult(jobId, JobExecutionStatus.SUCCESS));
+        Assertions.assertSame(jobResult, future.get(1, TimeUnit.SECONDS));
+        Assertions.assertSame(jobResult, beforeCompletion.get());
+
+        // callbacks registered after completion run straight away
+        AtomicReference<JobResult> afterCompletion = new AtomicReference<>();
+        jobResult.onComplete(afterCompletion::set);
+        Assertions.assertSame(jobResult, afterCompletion.get());
+        Assertions.assertTrue(jobResult.toCompletableFuture().isDone());
+    }
+}
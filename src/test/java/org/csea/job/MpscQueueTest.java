@@ -0,0 +1,140 @@
+package org.csea.job;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+
+public class MpscQueueTest {
+
+    @Test
+    public void testFifoOrder() {
+        MpscQueue<Element> queue = new MpscQueue<>();
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.poll());
+
+        List<Element> elements = elements(3);
+        queue.offer(elements.get(0));
+        queue.offer(elements.get(1));
+        queue.offer(elements.get(2));
+        Assertions.assertFalse(queue.isEmpty());
+        Assertions.assertSame(elements.get(0), queue.peek());
+        Assertions.assertSame(elements.get(0), queue.poll());
+        Assertions.assertSame(elements.get(1), queue.poll());
+        Assertions.assertSame(elements.get(2), queue.poll());
+        Assertions.assertNull(queue.poll());
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDrainHonoursLimit() {
+        MpscQueue<Element> queue = new MpscQueue<>();
+        List<Element> elements = elements(5);
+        for (Element element : elements) {
+            queue.offer(element);
+        }
+        List<Element> drained = new ArrayList<>();
+        Assertions.assertEquals(3, queue.drain(drained::add, 3));
+        Assertions.assertEquals(elements.subList(0, 3), drained);
+        Assertions.assertEquals(2, queue.drain(drained::add, 3));
+        Assertions.assertEquals(elements, drained);
+        Assertions.assertEquals(0, queue.drain(drained::add, 3));
+    }
+
+    @Test
+    public void testOfferAll() {
+        MpscQueue<Element> queue = new MpscQueue<>();
+        List<Element> elements = elements(5);
+        queue.offer(elements.get(0));
+        queue.offerAll(elements.subList(1, 4));
+        queue.offerAll(List.of());
+        queue.offer(elements.get(4));
+        List<Element> drained = new ArrayList<>();
+        Assertions.assertEquals(5, queue.drain(drained::add, 10));
+        Assertions.assertEquals(elements, drained);
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPolledElementsCanBeOfferedAgain() {
+        MpscQueue<Element> queue = new MpscQueue<>();
+        List<Element> elements = elements(2);
+        for (int round = 0; round < 3; round++) {
+            queue.offer(elements.get(0));
+            Assertions.assertSame(elements.get(0), queue.poll());
+            // the only element in the queue goes straight back in
+            queue.offer(elements.get(0));
+            queue.offer(elements.get(1));
+            Assertions.assertSame(elements.get(0), queue.peek());
+            Assertions.assertSame(elements.get(0), queue.poll());
+            Assertions.assertSame(elements.get(1), queue.poll());
+            Assertions.assertNull(queue.poll());
+            Assertions.assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        int producers = 8;
+        int perProducer = 50_000;
+        MpscQueue<Element> queue = new MpscQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    queue.offer(new Element(producer, i));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        int[] lastSeen = new int[producers];
+        java.util.Arrays.fill(lastSeen, -1);
+        int received = 0;
+        while (received < producers * perProducer) {
+            Element element = queue.poll();
+            if (element == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            // each producer's elements must come out in the order that producer offered them
+            Assertions.assertEquals(lastSeen[element.producer] + 1, element.value);
+            lastSeen[element.producer] = element.value;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    private static List<Element> elements(int count) {
+        List<Element> elements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            elements.add(new Element(0, i));
+        }
+        return elements;
+    }
+
+    private static final class Element extends MpscQueue.Node {
+        private final int producer;
+        private final int value;
+
+        private Element(int producer, int value) {
+            this.producer = producer;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.csea.job;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class PendingQueueTest {
+
+    @Test
+    public void testEarliestDeadlineFirstAcrossClasses() {
+        // class 0 has a deadline 10 after queueing, class 1 a deadline 100 after
+        PendingQueue<Entry> queue = new PendingQueue<>(2, Entry::priorityClass,
+                entry -> entry.queuedAt() + (entry.priorityClass() == 0 ? 10 : 100));
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.peek());
+
+        Entry backfill1 = new Entry(1, 0);
+        Entry backfill2 = new Entry(1, 5);
+        Entry urgent1 = new Entry(0, 50);
+        Entry urgent2 = new Entry(0, 200);
+        queue.offer(backfill1);
+        queue.offer(backfill2);
+        queue.offerAll(List.of(urgent1, urgent2));
+
+        Assertions.assertSame(urgent1, queue.peek());
+        List<Entry> drained = new ArrayList<>();
+        Assertions.assertEquals(4, queue.drain(drained::add, 10));
+        // deadlines 60, 100, 105 and 210
+        Assertions.assertEquals(List.of(urgent1, backfill1, backfill2, urgent2), drained);
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPollIf() {
+        PendingQueue<Entry> queue = new PendingQueue<>(2, Entry::priorityClass, Entry::queuedAt);
+        Assertions.assertNull(queue.pollIf(entry -> true));
+        Entry backfill = new Entry(1, 10);
+        queue.offer(backfill);
+        Assertions.assertNull(queue.pollIf(entry -> false));
+        Assertions.assertFalse(queue.isEmpty());
+
+        // an earlier element offered after a failed test is the one tested next
+        Entry urgent = new Entry(0, 5);
+        queue.offer(urgent);
+        Assertions.assertSame(urgent, queue.pollIf(entry -> entry.priorityClass() == 0));
+        Assertions.assertNull(queue.pollIf(entry -> entry.priorityClass() == 0));
+        Assertions.assertSame(backfill, queue.pollIf(entry -> true));
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPollLowestPriority() {
+        PendingQueue<Entry> queue = new PendingQueue<>(3, Entry::priorityClass, Entry::queuedAt);
+        Entry urgent = new Entry(0, 0);
+        Entry normal = new Entry(1, 1);
+        Entry backfill = new Entry(2, 2);
+        queue.offerAll(List.of(urgent, normal, backfill));
+
+        Assertions.assertSame(backfill, queue.pollLowestPriority());
+        Assertions.assertSame(normal, queue.pollLowestPriority());
+        Assertions.assertSame(urgent, queue.pollLowestPriority());
+        Assertions.assertNull(queue.pollLowestPriority());
+    }
+
+    private static final class Entry extends MpscQueue.Node {
+        private final int priorityClass;
+        private final long queuedAt;
+
+        private Entry(int priorityClass, long queuedAt) {
+            this.priorityClass = priorityClass;
+            this.queuedAt = queuedAt;
+        }
+
+        private int priorityClass() {
+            return priorityClass;
+        }
+
+        private long queuedAt() {
+            return queuedAt;
+        }
+    }
+}
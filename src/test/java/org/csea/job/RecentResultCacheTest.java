@@ -0,0 +1,56 @@
+package org.csea.job;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+
+public class RecentResultCacheTest {
+
+    @Test
+    public void testEvictsOldestBeyondMaxSize() {
+        RecentResultCache cache = new RecentResultCache(2, 60_000);
+        JobResult first = new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS);
+        JobResult second = new JobResult(UUID.randomUUID(), JobExecutionStatus.FAIL, "failed");
+        JobResult third = new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS);
+
+        cache.putAll(List.of(first, second));
+        Assertions.assertSame(first, cache.get(first.getJobId()));
+        Assertions.assertSame(second, cache.get(second.getJobId()));
+
+        cache.putAll(List.of(third));
+        Assertions.assertNull(cache.get(first.getJobId()));
+        Assertions.assertSame(second, cache.get(second.getJobId()));
+        Assertions.assertSame(third, cache.get(third.getJobId()));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testExpiresAfterTtl() throws InterruptedException {
+        RecentResultCache cache = new RecentResultCache(100, 50);
+        JobResult expiring = new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS);
+        cache.putAll(List.of(expiring));
+        Assertions.assertSame(expiring, cache.get(expiring.getJobId()));
+
+        Thread.sleep(100);
+        Assertions.assertNull(cache.get(expiring.getJobId()));
+        JobResult fresh = new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS);
+        cache.putAll(List.of(fresh));
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertSame(fresh, cache.get(fresh.getJobId()));
+    }
+
+    @Test
+    public void testReplacedEntryIsNotEvictedWithTheOldOne() {
+        RecentResultCache cache = new RecentResultCache(2, 60_000);
+        UUID jobId = UUID.randomUUID();
+        JobResult older = new JobResult(jobId, JobExecutionStatus.FAIL, "failed");
+        JobResult newer = new JobResult(jobId, JobExecutionStatus.SUCCESS);
+        cache.putAll(List.of(older));
+        cache.putAll(List.of(newer));
+        cache.putAll(List.of(new JobResult(UUID.randomUUID(), JobExecutionStatus.SUCCESS)));
+        Assertions.assertSame(newer, cache.get(jobId));
+    }
+}
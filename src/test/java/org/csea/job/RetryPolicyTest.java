@@ -0,0 +1,50 @@
+package org.csea.job;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testBackoffDoublesUpToMax() {
+        RetryPolicy policy = RetryPolicy.exponentialBackoff(10, 100, 1000).withJitter(0);
+        Assertions.assertEquals(100, policy.backoffInMillis(1));
+        Assertions.assertEquals(200, policy.backoffInMillis(2));
+        Assertions.assertEquals(400, policy.backoffInMillis(3));
+        Assertions.assertEquals(800, policy.backoffInMillis(4));
+        Assertions.assertEquals(1000, policy.backoffInMillis(5));
+        Assertions.assertEquals(1000, policy.backoffInMillis(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testJitterOnlyShortensBackoff() {
+        RetryPolicy policy = RetryPolicy.exponentialBackoff(10, 100, 1000).withJitter(0.5);
+        for (int i = 0; i < 1000; i++) {
+            long backoff = policy.backoffInMillis(2);
+            Assertions.assertTrue(backoff > 100 && backoff <= 200, "backoff " + backoff);
+        }
+    }
+
+    @Test
+    public void testShouldRetry() {
+        RetryPolicy policy = RetryPolicy.exponentialBackoff(3, 0, 0)
+                .retryIf(result -> !"terminal".equals(result.getFailedMessage()));
+        JobResult transientFailure = new JobResult(UUID.randomUUID(), JobExecutionStatus.FAIL, "transient");
+        JobResult terminalFailure = new JobResult(UUID.randomUUID(), JobExecutionStatus.FAIL, "terminal");
+        Assertions.assertTrue(policy.shouldRetry(transientFailure, 1));
+        Assertions.assertTrue(policy.shouldRetry(transientFailure, 2));
+        Assertions.assertFalse(policy.shouldRetry(transientFailure, 3));
+        Assertions.assertFalse(policy.shouldRetry(terminalFailure, 1));
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RetryPolicy.exponentialBackoff(0, 1, 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RetryPolicy.exponentialBackoff(1, 2, 1));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RetryPolicy.exponentialBackoff(1, 1, 1).withJitter(1.5));
+    }
+}
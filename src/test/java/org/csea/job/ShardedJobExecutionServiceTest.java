@@ -0,0 +1,180 @@
+package org.csea.job;
+
+import org.csea.job.journal.JobJournal;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+public class ShardedJobExecutionServiceTest {
+
+    @Test
+    public void testJobsWithSameKeyKeepTheirOrder() {
+        Map<String, List<Integer>> processedByKey = new ConcurrentHashMap<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        BatchProcessor recordingProcessor = jobs -> {
+            threads.add(Thread.currentThread().getName());
+            List<JobResult> results = new ArrayList<>();
+            for (Job job : jobs) {
+                KeyedJob keyedJob = (KeyedJob) job;
+                processedByKey.computeIfAbsent(keyedJob.key, key -> new ArrayList<>()).add(keyedJob.sequence);
+                results.add(new JobResult(job.getId(), JobExecutionStatus.SUCCESS));
+            }
+            return results;
+        };
+
+        ShardedJobExecutionService service = new ShardedJobExecutionService(4,
+                JobExecutionService.builder(5, recordingProcessor).maxDelayInMillis(10));
+        Assertions.assertEquals(4, service.getLaneCount());
+
+        List<JobResult> jobResults = new ArrayList<>();
+        List<KeyedJob> bulkJobs = new ArrayList<>();
+        for (int sequence = 0; sequence < 200; sequence++) {
+            jobResults.add(service.submit(new KeyedJob("key" + (sequence % 16), sequence)));
+            bulkJobs.add(new KeyedJob("key" + (sequence % 16), 200 + sequence));
+        }
+        List<JobResult> bulkResults = service.submitAll(bulkJobs);
+        for (int i = 0; i < bulkJobs.size(); i++) {
+            Assertions.assertEquals(bulkJobs.get(i).getId(), bulkResults.get(i).getJobId());
+        }
+        jobResults.addAll(bulkResults);
+        service.shutdown();
+
+        for (JobResult jobResult : jobResults) {
+            Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult.getStatus());
+        }
+        Assertions.assertEquals(16, processedByKey.size());
+        for (List<Integer> sequences : processedByKey.values()) {
+            for (int i = 1; i < sequences.size(); i++) {
+                Assertions.assertTrue(sequences.get(i - 1) < sequences.get(i), "jobs for a key ran out of order");
+            }
+        }
+        Assertions.assertTrue(threads.size() > 1, "jobs should be spread over more than one lane");
+    }
+
+    @Test
+    public void testEachLaneRegistersItsOwnMXBean() throws Exception {
+        BatchProcessor succeedingProcessor = jobs -> jobs.stream()
+                .map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName lane0 = new ObjectName("org.csea.job:type=JobExecutionService,name=\"sharded\",lane=0");
+        ObjectName lane1 = new ObjectName("org.csea.job:type=JobExecutionService,name=\"sharded\",lane=1");
+
+        ShardedJobExecutionService service = new ShardedJobExecutionService(2,
+                JobExecutionService.builder(5, succeedingProcessor).jmxName("sharded"));
+        Assertions.assertTrue(mbeanServer.isRegistered(lane0));
+        Assertions.assertTrue(mbeanServer.isRegistered(lane1));
+        service.shutdown();
+        Assertions.assertFalse(mbeanServer.isRegistered(lane0));
+        Assertions.assertFalse(mbeanServer.isRegistered(lane1));
+
+        // with the second lane's name taken, the first lane is shut down again rather than left running
+        Runnable placeholder = () -> { };
+        mbeanServer.registerMBean(new StandardMBean(placeholder, Runnable.class), lane1);
+        try {
+            Assertions.assertThrows(IllegalStateException.class, () -> new ShardedJobExecutionService(2,
+                    JobExecutionService.builder(5, succeedingProcessor).jmxName("sharded")));
+            Assertions.assertFalse(mbeanServer.isRegistered(lane0));
+        } finally {
+            mbeanServer.unregisterMBean(lane1);
+        }
+    }
+
+    @Test
+    public void testSubmitAllFailsTheJobsOfALaneThatRejects() throws InterruptedException {
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BatchProcessor blockingProcessor = jobs -> {
+            processing.countDown();
+            try {
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        };
+        ShardedJobExecutionService service = new ShardedJobExecutionService(2,
+                JobExecutionService.builder(1, blockingProcessor)
+                        .capacity(1)
+                        .overflowPolicy(OverflowPolicy.REJECT));
+        // "key1" goes to lane 0 and "key0" to lane 1, which is left full with one job running and one pending
+        JobResult running = service.submit(new KeyedJob("key0", 0));
+        Assertions.assertTrue(processing.await(2, TimeUnit.SECONDS));
+        JobResult pending = service.submit(new KeyedJob("key0", 1));
+
+        // nothing has been queued when the first lane rejects, so the whole call is rejected
+        Assertions.assertThrows(RejectedExecutionException.class,
+                () -> service.submitAll(List.of(new KeyedJob("key0", 2))));
+        // lane 0 has queued its job by the time lane 1 rejects, so lane 1's job fails instead
+        List<JobResult> results = service.submitAll(List.of(new KeyedJob("key1", 3), new KeyedJob("key0", 4)));
+        Assertions.assertEquals(JobExecutionStatus.FAIL, results.get(1).getStatus());
+        Assertions.assertEquals(JobExecutionService.AT_CAPACITY_MESSAGE, results.get(1).getFailedMessage());
+
+        release.countDown();
+        for (JobResult jobResult : List.of(running, pending, results.get(0))) {
+            Assertions.assertTrue(jobResult.await(2000));
+            Assertions.assertEquals(JobExecutionStatus.SUCCESS, jobResult.getStatus());
+        }
+        service.shutdown();
+    }
+
+    @Test
+    public void testJournalIsRefused() throws Exception {
+        Path file = Files.createTempFile("jobs", ".journal");
+        JobSerializer serializer = new JobSerializer() {
+            @Override
+            public byte[] serialize(Job job) {
+                return new byte[0];
+            }
+
+            @Override
+            public Job deserialize(byte[] bytes) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try (JobJournal journal = new JobJournal(file, 4096, serializer)) {
+            JobExecutionService.Builder builder = JobExecutionService.builder(5, jobs -> List.of()).journal(journal);
+            // every lane would replay the same unfinished jobs and append to the same file
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new ShardedJobExecutionService(2, builder));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static class KeyedJob implements Job {
+
+        private final UUID id = UUID.randomUUID();
+        private final String key;
+        private final int sequence;
+
+        private KeyedJob(String key, int sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+
+        @Override
+        public Object getPartitionKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.csea.job.journal;
+
+import org.csea.job.Job;
+import org.csea.job.JobSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+
+public class JobJournalTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testRecoversUnfinishedJobsInOrder() {
+        Path file = directory.resolve("jobs.journal");
+        List<TestJob> jobs = new ArrayList<>();
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            Assertions.assertTrue(journal.recover().isEmpty());
+            for (int i = 0; i < 5; i++) {
+                jobs.add(new TestJob("job " + i));
+            }
+            journal.recordSubmitted(jobs.get(0));
+            journal.recordSubmitted(jobs.subList(1, 5));
+            journal.commit();
+            journal.recordCompleted(List.of(jobs.get(1).getId(), jobs.get(3).getId(), UUID.randomUUID()));
+        }
+
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            List<Job> recovered = journal.recover();
+            Assertions.assertEquals(List.of(jobs.get(0), jobs.get(2), jobs.get(4)), recovered);
+            Assertions.assertTrue(journal.recover().isEmpty());
+        }
+    }
+
+    @Test
+    public void testCompactsAndGrowsWhenFull() {
+        Path file = directory.resolve("jobs.journal");
+        List<TestJob> unfinished = new ArrayList<>();
+        try (JobJournal journal = new JobJournal(file, 256, new TestJobSerializer())) {
+            for (int i = 0; i < 1000; i++) {
+                TestJob job = new TestJob("job " + i);
+                journal.recordSubmitted(job);
+                if (i % 10 == 0) {
+                    unfinished.add(job);
+                } else {
+                    journal.recordCompleted(List.of(job.getId()));
+                }
+            }
+        }
+        Assertions.assertFalse(Files.exists(directory.resolve("jobs.journal.compact")));
+
+        try (JobJournal journal = new JobJournal(file, 256, new TestJobSerializer())) {
+            Assertions.assertEquals(unfinished, journal.recover());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsSkipped() throws IOException {
+        Path file = directory.resolve("jobs.journal");
+        TestJob first = new TestJob("first");
+        TestJob second = new TestJob("second");
+        TestJob third = new TestJob("third");
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            journal.recordSubmitted(first);
+            journal.recordSubmitted(second);
+        }
+        // flip a byte in the second record's payload, as if the crash came part way through writing it
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int secondOffset = JobJournal.FILE_HEADER_LENGTH + readInt(channel, JobJournal.FILE_HEADER_LENGTH);
+            channel.write(ByteBuffer.wrap(new byte[] {'?'}), secondOffset + readInt(channel, secondOffset) - 1);
+        }
+
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            Assertions.assertEquals(List.of(first), journal.recover());
+            journal.recordSubmitted(third);
+        }
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            Assertions.assertEquals(List.of(first, third), journal.recover());
+        }
+    }
+
+    @Test
+    public void testUnwrittenSlotBelowTheWatermarkIsSteppedOver() throws IOException {
+        Path file = directory.resolve("jobs.journal");
+        TestJob first = new TestJob("first");
+        TestJob second = new TestJob("second");
+        TestJob third = new TestJob("third");
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            journal.recordSubmitted(List.of(first, second, third));
+            journal.commit();
+        }
+        // blank the second record, as if its writer had claimed the slot but not written it when the others committed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int secondOffset = JobJournal.FILE_HEADER_LENGTH + readInt(channel, JobJournal.FILE_HEADER_LENGTH);
+            channel.write(ByteBuffer.allocate(readInt(channel, secondOffset)), secondOffset);
+        }
+
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            Assertions.assertEquals(List.of(first, third), journal.recover());
+        }
+    }
+
+    @Test
+    public void testGarbageBeyondTheRecordsIsZeroed() throws IOException {
+        Path file = directory.resolve("jobs.journal");
+        TestJob first = new TestJob("first");
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            journal.recordSubmitted(first);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}), 3000);
+        }
+
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            Assertions.assertEquals(List.of(first), journal.recover());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Assertions.assertEquals(0, readInt(channel, 3000));
+        }
+    }
+
+    @Test
+    public void testConcurrentAppends() throws InterruptedException {
+        Path file = directory.resolve("jobs.journal");
+        int writers = 4;
+        int perWriter = 5_000;
+        List<TestJob> unfinished = new CopyOnWriteArrayList<>();
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < perWriter; i++) {
+                        TestJob job = new TestJob("job " + i);
+                        journal.recordSubmitted(job);
+                        if (i % 100 == 0) {
+                            unfinished.add(job);
+                        } else {
+                            journal.recordCompleted(List.of(job.getId()));
+                        }
+                        if (i % 500 == 0) {
+                            journal.commit();
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        try (JobJournal journal = new JobJournal(file, 4096, new TestJobSerializer())) {
+            List<Job> recovered = journal.recover();
+            Assertions.assertEquals(unfinished.size(), recovered.size());
+            Assertions.assertTrue(recovered.containsAll(unfinished));
+        }
+    }
+
+    @Test
+    public void testRejectsFileThatIsNotAJournal() throws IOException {
+        Path file = directory.resolve("other");
+        Files.writeString(file, "not a journal");
+        Assertions.assertThrows(UncheckedIOException.class,
+                () -> new JobJournal(file, 4096, new TestJobSerializer()));
+    }
+
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        channel.read(buffer, position);
+        return buffer.getInt(0);
+    }
+
+    private record TestJob(UUID id, String name) implements Job {
+
+        private TestJob(String name) {
+            this(UUID.randomUUID(), name);
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+    }
+
+    private static class TestJobSerializer implements JobSerializer {
+
+        @Override
+        public byte[] serialize(Job job) {
+            TestJob testJob = (TestJob) job;
+            byte[] name = testJob.name().getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(16 + name.length)
+                    .putLong(job.getId().getMostSignificantBits())
+                    .putLong(job.getId().getLeastSignificantBits())
+                    .put(name)
+                    .array();
+        }
+
+        @Override
+        public Job deserialize(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            UUID id = new UUID(buffer.getLong(), buffer.getLong());
+            byte[] name = new byte[buffer.remaining()];
+            buffer.get(name);
+            return new TestJob(id, new String(name, StandardCharsets.UTF_8));
+        }
+    }
+}
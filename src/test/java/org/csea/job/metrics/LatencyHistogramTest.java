@@ -0,0 +1,76 @@
+package org.csea.job.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.getCount());
+        Assertions.assertEquals(0, histogram.getPercentile(99));
+        Assertions.assertEquals(0, histogram.getMax());
+        Assertions.assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        Assertions.assertEquals(100_000, histogram.getCount());
+        Assertions.assertEquals(100_000_000, histogram.getMax());
+        Assertions.assertEquals(50_000_500.0, histogram.getMean(), 1.0);
+        assertWithin(50_000_000, histogram.getPercentile(50));
+        assertWithin(99_000_000, histogram.getPercentile(99));
+        assertWithin(99_900_000, histogram.getPercentile(99.9));
+        Assertions.assertEquals(100_000_000, histogram.getPercentile(100));
+        assertWithin(1000, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3, 10);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        Assertions.assertEquals(12, histogram.getCount());
+        Assertions.assertEquals(3, histogram.getPercentile(50));
+        Assertions.assertEquals(0, histogram.getPercentile(1));
+        Assertions.assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testCopyAndConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i % 1000);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram copy = histogram.copy();
+        histogram.record(5);
+        Assertions.assertEquals(400_000, copy.getCount());
+        Assertions.assertEquals(400_001, histogram.getCount());
+        Assertions.assertEquals(999, copy.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assertions.assertTrue(actual >= expected && actual <= expected * 1.04,
+                () -> "expected about " + expected + " but was " + actual);
+    }
+}
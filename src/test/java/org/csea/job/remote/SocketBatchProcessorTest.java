@@ -0,0 +1,189 @@
+package org.csea.job.remote;
+
+import org.csea.job.BatchProcessor;
+import org.csea.job.Job;
+import org.csea.job.JobExecutionService;
+import org.csea.job.JobExecutionStatus;
+import org.csea.job.JobResult;
+import org.csea.job.JobSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+public class SocketBatchProcessorTest {
+
+    private static final JobSerializer SERIALIZER = new TestJobSerializer();
+
+    @Test
+    public void testJobsRoundTripThroughTheServer() throws InterruptedException {
+        BatchProcessor worker = jobs -> jobs.stream()
+                .map(job -> ((TestJob) job).name.startsWith("bad")
+                        ? new JobResult(job.getId(), JobExecutionStatus.FAIL, "rejected " + ((TestJob) job).name)
+                        : new JobResult(job.getId(), JobExecutionStatus.SUCCESS))
+                .toList();
+        try (LoopbackBatchServer server = new LoopbackBatchServer(worker, SERIALIZER, 4);
+             SocketBatchProcessor processor = new SocketBatchProcessor(server.getAddress(), SERIALIZER)) {
+            JobExecutionService service = JobExecutionService.asyncBuilder(10, processor)
+                    .maxDelayInMillis(5)
+                    .maxInFlightBatches(4)
+                    .build();
+            List<TestJob> jobs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                jobs.add(new TestJob((i % 3 == 0 ? "bad-" : "good-") + i));
+            }
+            List<JobResult> results = service.submitAll(jobs);
+            for (int i = 0; i < jobs.size(); i++) {
+                JobResult result = results.get(i);
+                Assertions.assertTrue(result.await(2000));
+                if (i % 3 == 0) {
+                    Assertions.assertEquals(JobExecutionStatus.FAIL, result.getStatus());
+                    Assertions.assertEquals("rejected bad-" + i, result.getFailedMessage());
+                } else {
+                    Assertions.assertEquals(JobExecutionStatus.SUCCESS, result.getStatus());
+                    Assertions.assertNull(result.getFailedMessage());
+                }
+            }
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testPipelinedBatchesAreMatchedById() throws Exception {
+        CountDownLatch secondProcessed = new CountDownLatch(1);
+        BatchProcessor worker = jobs -> {
+            try {
+                if (((TestJob) jobs.get(0)).name.equals("first")) {
+                    // held back until the batch sent after it has been answered
+                    secondProcessed.await(2, TimeUnit.SECONDS);
+                } else {
+                    secondProcessed.countDown();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return jobs.stream().map(job -> new JobResult(job.getId(), JobExecutionStatus.SUCCESS)).toList();
+        };
+        try (LoopbackBatchServer server = new LoopbackBatchServer(worker, SERIALIZER, 2);
+             SocketBatchProcessor processor = new SocketBatchProcessor(server.getAddress(), SERIALIZER)) {
+            TestJob first = new TestJob("first");
+            TestJob second = new TestJob("second");
+            TestJob third = new TestJob("third");
+            CompletableFuture<List<JobResult>> firstResults = processor.processAsync(List.of(first)).toCompletableFuture();
+            CompletableFuture<List<JobResult>> secondResults = processor.processAsync(List.of(second, third))
+                    .toCompletableFuture();
+
+            List<JobResult> answered = secondResults.get(2, TimeUnit.SECONDS);
+            Assertions.assertEquals(List.of(second.getId(), third.getId()),
+                    answered.stream().map(JobResult::getJobId).toList());
+            List<JobResult> held = firstResults.get(2, TimeUnit.SECONDS);
+            Assertions.assertEquals(List.of(first.getId()), held.stream().map(JobResult::getJobId).toList());
+        }
+    }
+
+    @Test
+    public void testLostConnectionFailsOutstandingBatches() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BatchProcessor worker = jobs -> {
+            received.countDown();
+            try {
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of();
+        };
+        LoopbackBatchServer server = new LoopbackBatchServer(worker, SERIALIZER, 1);
+        try (SocketBatchProcessor processor = new SocketBatchProcessor(server.getAddress(), SERIALIZER)) {
+            CompletableFuture<List<JobResult>> outstanding = processor.processAsync(List.of(new TestJob("lost")))
+                    .toCompletableFuture();
+            Assertions.assertTrue(received.await(2, TimeUnit.SECONDS));
+            server.close();
+            release.countDown();
+
+            ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+                    () -> outstanding.get(2, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(UncheckedIOException.class, failure.getCause());
+            Assertions.assertThrows(UncheckedIOException.class, () -> processor.process(List.of(new TestJob("late"))));
+        }
+    }
+
+    @Test
+    public void testProcessAsyncDoesNotWaitForTheWrite() throws Exception {
+        // a worker that never reads, so a batch bigger than the socket buffers can never be written in full
+        try (ServerSocketChannel server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            CompletableFuture<List<JobResult>> outstanding;
+            try (SocketBatchProcessor processor = new SocketBatchProcessor(
+                         (InetSocketAddress) server.getLocalAddress(), SERIALIZER);
+                 SocketChannel accepted = server.accept()) {
+                Assertions.assertNotNull(accepted);
+                TestJob big = new TestJob("x".repeat(16 << 20));
+                long start = System.nanoTime();
+                outstanding = processor.processAsync(List.of(big)).toCompletableFuture();
+                Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1),
+                        "processAsync waited for the write");
+                Assertions.assertFalse(outstanding.isDone());
+            }
+            ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+                    () -> outstanding.get(2, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(UncheckedIOException.class, failure.getCause());
+        }
+    }
+
+    private static class TestJob implements Job {
+
+        private final UUID id;
+
+        private final String name;
+
+        private TestJob(String name) {
+            this(UUID.randomUUID(), name);
+        }
+
+        private TestJob(UUID id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+    }
+
+    private static class TestJobSerializer implements JobSerializer {
+
+        @Override
+        public byte[] serialize(Job job) {
+            byte[] name = ((TestJob) job).name.getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(16 + name.length)
+                    .putLong(job.getId().getMostSignificantBits())
+                    .putLong(job.getId().getLeastSignificantBits())
+                    .put(name)
+                    .array();
+        }
+
+        @Override
+        public Job deserialize(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            UUID id = new UUID(buffer.getLong(), buffer.getLong());
+            return new TestJob(id, new String(bytes, 16, bytes.length - 16, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.csea.load;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+public class IntervalLatencyTest {
+
+    @Test
+    public void testNothingIsLostWhileIntervalsAreTaken() throws InterruptedException {
+        IntervalLatency interval = new IntervalLatency();
+        AtomicBoolean stop = new AtomicBoolean();
+        long[] recorded = new long[4];
+        List<Thread> recorders = new ArrayList<>();
+        for (int i = 0; i < recorded.length; i++) {
+            int index = i;
+            Thread recorder = new Thread(() -> {
+                while (!stop.get()) {
+                    interval.record(index);
+                    recorded[index]++;
+                }
+            });
+            recorders.add(recorder);
+            recorder.start();
+        }
+        long taken = 0;
+        for (int i = 0; i < 200; i++) {
+            taken += interval.take().getCount();
+            Thread.yield();
+        }
+        stop.set(true);
+        long total = 0;
+        for (int i = 0; i < recorders.size(); i++) {
+            recorders.get(i).join();
+            total += recorded[i];
+        }
+        taken += interval.take().getCount();
+
+        Assertions.assertEquals(total, taken);
+        Assertions.assertEquals(0, interval.take().getCount());
+    }
+}
@@ -0,0 +1,39 @@
+package org.csea.load;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+
+public class LatencyDistributionTest {
+
+    @Test
+    public void testParse() {
+        Assertions.assertEquals(2_000_000, LatencyDistribution.parse("fixed:2").nextNanos());
+        Assertions.assertEquals(500_000, LatencyDistribution.parse("fixed:0.5").nextNanos());
+        for (int i = 0; i < 100; i++) {
+            long uniform = LatencyDistribution.parse("uniform:1:5").nextNanos();
+            Assertions.assertTrue(uniform >= 1_000_000 && uniform <= 5_000_000);
+            Assertions.assertTrue(LatencyDistribution.parse("exponential:2").nextNanos() >= 0);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LatencyDistribution.parse("fixed"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LatencyDistribution.parse("uniform:5:1"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LatencyDistribution.parse("normal:2"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LatencyDistribution.parse("fixed:two"));
+    }
+
+    @Test
+    public void testLogNormalPercentiles() {
+        LatencyDistribution distribution = LatencyDistribution.logNormal(2, 20);
+        long[] samples = new long[100_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = distribution.nextNanos();
+        }
+        Arrays.sort(samples);
+        double median = samples[samples.length / 2] / 1e6;
+        double p99 = samples[samples.length * 99 / 100] / 1e6;
+        Assertions.assertEquals(2, median, 0.1);
+        Assertions.assertEquals(20, p99, 2);
+    }
+}
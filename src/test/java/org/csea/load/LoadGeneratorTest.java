@@ -0,0 +1,56 @@
+package org.csea.load;
+
+import org.csea.job.JobExecutionService;
+import org.csea.job.OverflowPolicy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void testSubmitsAtTheTargetRate() throws InterruptedException {
+        JobExecutionService service = JobExecutionService.builder(20,
+                        new SyntheticBatchProcessor(LatencyDistribution.fixed(1), 0, 0.5))
+                .maxDelayInMillis(5)
+                .build();
+        LoadGenerator generator = new LoadGenerator(service, 2000);
+        long start = System.nanoTime();
+        generator.run(500);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assertions.assertTrue(generator.awaitCompletion(2000));
+        Assertions.assertEquals(1000, generator.getSubmitted());
+        Assertions.assertEquals(1000, generator.getCompleted());
+        Assertions.assertEquals(1000, generator.getLatency().getCount());
+        Assertions.assertTrue(elapsed >= 490, "finished early after " + elapsed + "ms");
+        // half of the jobs fail, so this is many standard deviations wide
+        Assertions.assertTrue(generator.getFailed() > 400 && generator.getFailed() < 600,
+                generator.getFailed() + " failed");
+        service.shutdown();
+    }
+
+    @Test
+    public void testLatencyIsMeasuredFromWhenJobsWereDue() throws InterruptedException {
+        // the service can only take 20 jobs a second and blocks submit when full, so the generator falls behind
+        JobExecutionService service = JobExecutionService.builder(1,
+                        new SyntheticBatchProcessor(LatencyDistribution.fixed(50), 0, 0))
+                .capacity(1)
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        LoadGenerator generator = new LoadGenerator(service, 100);
+        generator.run(300);
+        Assertions.assertTrue(generator.awaitCompletion(5000));
+
+        Assertions.assertEquals(30, generator.getSubmitted());
+        Assertions.assertTrue(generator.getMaxLagInNanos() > TimeUnit.MILLISECONDS.toNanos(500));
+        // measured from the submit, the time the later jobs spent waiting to get in would be missed
+        long corrected = generator.getLatency().getMax();
+        long uncorrected = generator.getServiceLatency().getMax();
+        Assertions.assertTrue(corrected > uncorrected + TimeUnit.MILLISECONDS.toNanos(500),
+                "corrected " + corrected + " uncorrected " + uncorrected);
+        service.shutdown();
+    }
+}